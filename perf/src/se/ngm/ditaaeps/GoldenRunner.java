@@ -0,0 +1,266 @@
+/*
+ * GoldenRunner.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Properties;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.core.FileUtils;
+
+/** Checks the output of the diagrams in a golden corpus byte for byte, and
+ * their render time and allocation against budgets.
+ * <p>
+ * Each <code>NAME.txt</code> in the corpus directory is rendered with the
+ * default options and compared with <code>NAME.eps</code>. It is then
+ * rendered a number of times, and the median time and the median number of
+ * bytes allocated by the rendering thread, from the allocation counter of
+ * <code>ThreadMXBean</code>, are compared with the budgets of the diagram
+ * in <code>budgets.properties</code>. A diagram fails if its output differs,
+ * or if it exceeds a budget by more than the margin.
+ * <p>
+ * With <code>--update</code> the expected output and the budgets are
+ * written from this run instead, for when the output is meant to change.
+ * <p>
+ * Run it with <code>ant golden</code> or <code>ant golden-update</code>.
+ *
+ * @author Mikael Brannstrom
+ */
+public class GoldenRunner {
+
+    private static final String BUDGETS = "budgets.properties";
+
+    private final File dir;
+    private boolean update = false;
+    private int runs = 5;
+    private int timeMargin = 50;
+    private int allocMargin = 10;
+    private final Properties budgets = new Properties();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /** Creates a runner of the corpus in a directory. */
+    public GoldenRunner(File dir) {
+        this.dir = dir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        String dir = null;
+        boolean update = false;
+        int runs = 5;
+        int timeMargin = 50;
+        int allocMargin = 10;
+        try {
+            for(int i=0; i<args.length; i++) {
+                if(args[i].equals("--update"))
+                    update = true;
+                else if(args[i].equals("--runs"))
+                    runs = Integer.parseInt(args[++i]);
+                else if(args[i].equals("--time-margin"))
+                    timeMargin = Integer.parseInt(args[++i]);
+                else if(args[i].equals("--alloc-margin"))
+                    allocMargin = Integer.parseInt(args[++i]);
+                else if(dir == null && !args[i].startsWith("-"))
+                    dir = args[i];
+                else
+                    throw new IllegalArgumentException(args[i]);
+            }
+        } catch (RuntimeException e) {
+            dir = null;
+        }
+        if(dir == null || runs < 1 || timeMargin < 0 || allocMargin < 0) {
+            System.err.println("Usage: GoldenRunner [--update] [--runs N] [--time-margin PERCENT] [--alloc-margin PERCENT] <corpus dir>");
+            System.exit(2);
+        }
+        GoldenRunner runner = new GoldenRunner(new File(dir));
+        runner.update = update;
+        runner.runs = runs;
+        runner.timeMargin = timeMargin;
+        runner.allocMargin = allocMargin;
+        System.exit(runner.run() == 0 ? 0 : 1);
+    }
+
+    /** Checks, or with update writes, every diagram in the corpus and prints
+     * one line per diagram.
+     * @return the number of diagrams that failed.
+     */
+    public int run() throws IOException {
+        File[] files = dir.listFiles();
+        if(files == null)
+            throw new IOException("Cannot list "+dir);
+        Arrays.sort(files);
+        File budgetFile = new File(dir, BUDGETS);
+        if(budgetFile.isFile())
+            load(budgetFile, budgets);
+        if(threads.isThreadCpuTimeSupported() && !isAllocationSupported())
+            System.out.println("Allocated bytes are not measured by this JVM");
+
+        ConversionOptions options = new ConversionOptions();
+        DiagramRenderer renderer = new DiagramRenderer(options, new EpsOptions());
+        int failures = 0;
+        int count = 0;
+        for(int i=0; i<files.length; i++) {
+            String name = files[i].getName();
+            if(!name.endsWith(".txt"))
+                continue;
+            name = name.substring(0, name.length() - 4);
+            count++;
+            if(!check(renderer, name, files[i]))
+                failures++;
+        }
+        if(update)
+            writeBudgets(budgetFile);
+        System.out.println((count - failures)+" passed, "+failures+" failed");
+        return failures;
+    }
+
+    private boolean check(DiagramRenderer renderer, String name, File file) throws IOException {
+        String text = FileUtils.readFile(file, "UTF-8");
+        File expectedFile = new File(dir, name+".eps");
+        byte[] eps = renderer.render(text);
+        String error = null;
+        if(update) {
+            write(expectedFile, eps);
+        } else if(!expectedFile.isFile()) {
+            error = "no "+expectedFile.getName();
+        } else {
+            int diff = firstDifference(read(expectedFile), eps);
+            if(diff >= 0)
+                error = "output differs from "+expectedFile.getName()+" at byte "+diff;
+        }
+
+        long[] nanos = new long[runs];
+        long[] allocated = new long[runs];
+        long threadId = Thread.currentThread().getId();
+        for(int i=0; i<runs; i++) {
+            long bytes = getAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            renderer.render(text);
+            nanos[i] = System.nanoTime() - start;
+            allocated[i] = getAllocatedBytes(threadId) - bytes;
+        }
+        long millis = (median(nanos) + 999999) / 1000000;
+        long kilobytes = (median(allocated) + 1023) / 1024;
+
+        StringBuilder line = new StringBuilder();
+        line.append(name).append(": ").append(millis).append(" ms");
+        if(isAllocationSupported())
+            line.append(", ").append(kilobytes).append(" KB allocated");
+        if(update) {
+            budgets.setProperty(name+".time.ms", String.valueOf(millis));
+            if(isAllocationSupported())
+                budgets.setProperty(name+".alloc.kb", String.valueOf(kilobytes));
+        } else if(error == null) {
+            error = checkBudget(name+".time.ms", millis, timeMargin, "ms");
+            if(error == null && isAllocationSupported())
+                error = checkBudget(name+".alloc.kb", kilobytes, allocMargin, "KB");
+        }
+        System.out.println((error == null ? "OK     " : "FAILED ")+line+(error == null ? "" : " - "+error));
+        return error == null;
+    }
+
+    /** Returns why a measured value exceeds its budget by more than the
+     * margin, or <code>null</code> if it does not, or has no budget.
+     */
+    private String checkBudget(String key, long value, int margin, String unit) {
+        String budget = budgets.getProperty(key);
+        if(budget == null)
+            return null;
+        long limit = Long.parseLong(budget.trim()) * (100 + margin) / 100;
+        if(value <= limit)
+            return null;
+        return "over the budget of "+budget.trim()+" "+unit+" + "+margin+"%";
+    }
+
+    private boolean isAllocationSupported() {
+        return threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    }
+
+    private long getAllocatedBytes(long threadId) {
+        if(!isAllocationSupported())
+            return 0;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+    }
+
+    /** Writes the budgets sorted by key, so that they diff well. */
+    private void writeBudgets(File file) throws IOException {
+        String[] keys = budgets.stringPropertyNames().toArray(new String[0]);
+        Arrays.sort(keys);
+        PrintWriter out = new PrintWriter(file, "ISO-8859-1");
+        try {
+            out.println("# The render time and allocation budgets of the golden corpus,");
+            out.println("# written by GoldenRunner --update. Raise a budget by hand when");
+            out.println("# a diagram is meant to get slower.");
+            for(int i=0; i<keys.length; i++)
+                out.println(keys[i]+"="+budgets.getProperty(keys[i]));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /** Returns the index of the first byte that differs, or -1 if the
+     * arrays are equal.
+     */
+    private static int firstDifference(byte[] expected, byte[] actual) {
+        int length = Math.min(expected.length, actual.length);
+        for(int i=0; i<length; i++) {
+            if(expected[i] != actual[i])
+                return i;
+        }
+        return expected.length == actual.length ? -1 : length;
+    }
+
+    private static void load(File file, Properties properties) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int pos = 0;
+            while(pos < bytes.length) {
+                int n = in.read(bytes, pos, bytes.length - pos);
+                if(n < 0)
+                    throw new IOException("Unexpected end of "+file);
+                pos += n;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
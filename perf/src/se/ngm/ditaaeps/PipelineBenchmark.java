@@ -0,0 +1,128 @@
+/*
+ * PipelineBenchmark.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.geom.GeneralPath;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.graphics.Diagram;
+import org.stathissideris.ascii2image.graphics.DiagramShape;
+import org.stathissideris.ascii2image.text.TextGrid;
+
+/** JMH benchmarks of each stage of the pipeline, from the text file to the
+ * EPS, on the diagrams in <code>perf/corpus</code>.
+ * <p>
+ * Run them with <code>ant bench -Djmh.home=DIR</code>, where DIR holds the
+ * JMH jars. The target runs them with the GC profiler, so the allocation
+ * rate is reported along with the throughput.
+ *
+ * @author Mikael Brannstrom
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+    /** The diagram, a file in the corpus directory without <code>.txt</code>. */
+    @Param({"small", "medium", "large"})
+    public String diagram;
+
+    private String filename;
+    private ConversionOptions options;
+    private EpsOptions epsOptions;
+    private TextGrid grid;
+    private Diagram loadedDiagram;
+    private List<GeneralPath> paths;
+    private EpsGraphics2D g2;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        filename = new File(System.getProperty("corpus.dir", "perf/corpus"), diagram+".txt").getPath();
+        options = new ConversionOptions();
+        epsOptions = new EpsOptions();
+        grid = new TextGrid();
+        if(!grid.loadFrom(filename, options.processingOptions))
+            throw new IOException("Cannot open file "+filename+" for reading");
+        loadedDiagram = new Diagram(new TextGrid(grid), options);
+
+        paths = new ArrayList<GeneralPath>();
+        Iterator it = loadedDiagram.getAllDiagramShapes().iterator();
+        while(it.hasNext()) {
+            GeneralPath path = ((DiagramShape) it.next()).makeIntoRenderPath(loadedDiagram);
+            if(path != null)
+                paths.add(path);
+        }
+        g2 = new EpsGraphics2D(NullOutputStream.INSTANCE, EpsRenderer.getBoundingBox(loadedDiagram), epsOptions);
+        g2.scale(1, -1);
+        g2.setColor(Color.black);
+        g2.setStroke(new BasicStroke(1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        g2.finish();
+    }
+
+    @Benchmark
+    public TextGrid loadFrom() throws IOException {
+        TextGrid grid = new TextGrid();
+        grid.loadFrom(filename, options.processingOptions);
+        return grid;
+    }
+
+    @Benchmark
+    public Diagram newDiagram() {
+        // the diagram works on a copy, as building it may change the grid
+        return new Diagram(new TextGrid(grid), options);
+    }
+
+    @Benchmark
+    public void renderToEps() throws IOException {
+        EpsRenderer.renderToEps(loadedDiagram, NullOutputStream.INSTANCE, options.renderingOptions, epsOptions);
+    }
+
+    @Benchmark
+    public void printPath() {
+        for(int i=0; i<paths.size(); i++)
+            g2.printPath(paths.get(i));
+    }
+
+    /** Discards everything, so only the formatting of the EPS is measured. */
+    static class NullOutputStream extends OutputStream {
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * SimplifyCheck.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Checks that the paths written with <code>--simplify</code> stay within
+ * the tolerance of the paths they simplify.
+ * <p>
+ * Arcs and random polylines are simplified at several tolerances, and each
+ * vertex of the input must be within the tolerance of the written path, and
+ * each vertex of the written path within the tolerance of the input. The
+ * written coordinates are rounded to three decimals, which is allowed for.
+ * <p>
+ * Run it with <code>ant golden</code>, which runs it first.
+ *
+ * @author Mikael Brannstrom
+ */
+public class SimplifyCheck {
+
+    private static final double[] TOLERANCES = { 0.1, 0.5, 1, 2 };
+    private static final int PRECISION = 3;
+    private static final double ROUNDING = 0.001;
+
+    public static void main(String[] args) {
+        List<String> names = new ArrayList<String>();
+        List<double[]> polylines = new ArrayList<double[]>();
+        names.add("arc r=100");
+        polylines.add(arc(100, 64));
+        names.add("arc r=20");
+        polylines.add(arc(20, 32));
+        names.add("arc r=1000");
+        polylines.add(arc(1000, 200));
+        Random random = new Random(42);
+        for(int i=0; i<4; i++) {
+            names.add("random walk "+i);
+            polylines.add(randomWalk(random, 200));
+        }
+
+        int failures = 0;
+        for(int i=0; i<polylines.size(); i++) {
+            for(int j=0; j<TOLERANCES.length; j++) {
+                double tolerance = TOLERANCES[j];
+                double[] input = polylines.get(i);
+                double[] output = simplify(input, tolerance);
+                double deviation = Math.max(deviation(input, output), deviation(output, input));
+                boolean isOk = deviation <= tolerance + ROUNDING;
+                System.out.println((isOk ? "OK     " : "FAILED ")+names.get(i)+" at "+tolerance+": "
+                        +(input.length / 2)+" -> "+(output.length / 2)+" points, "
+                        +"deviation "+Math.round(deviation * 1000) / 1000.0);
+                if(!isOk)
+                    failures++;
+            }
+        }
+        System.out.println(failures == 0 ? "All within the tolerance" : failures+" failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** Returns the points of a quarter of a circle, from (r, 0). */
+    private static double[] arc(double radius, int segments) {
+        double[] points = new double[2 * (segments + 1)];
+        for(int i=0; i<=segments; i++) {
+            double angle = Math.PI / 2 * i / segments;
+            points[2*i] = radius * Math.cos(angle);
+            points[2*i+1] = radius * Math.sin(angle);
+        }
+        return points;
+    }
+
+    /** Returns a polyline of short steps that mostly go the same way. */
+    private static double[] randomWalk(Random random, int steps) {
+        double[] points = new double[2 * (steps + 1)];
+        double angle = 0;
+        for(int i=1; i<=steps; i++) {
+            angle += random.nextGaussian() * 0.1;
+            double length = 0.5 + random.nextDouble() * 2;
+            points[2*i] = points[2*i-2] + length * Math.cos(angle);
+            points[2*i+1] = points[2*i-1] + length * Math.sin(angle);
+        }
+        return points;
+    }
+
+    /** Simplifies a polyline as <code>--simplify</code> does, and returns
+     * the points of the written path.
+     */
+    private static double[] simplify(double[] points, double tolerance) {
+        GeneralPath path = new GeneralPath();
+        path.moveTo((float) points[0], (float) points[1]);
+        for(int i=2; i<points.length; i+=2)
+            path.lineTo((float) points[i], (float) points[i+1]);
+        PathBuffer buffer = new PathBuffer();
+        buffer.set(path);
+
+        String[] ops = new String[VectorGraphics2D.OP_CLOSEPATH + 1];
+        ops[VectorGraphics2D.OP_MOVETO] = "m";
+        ops[VectorGraphics2D.OP_LINETO] = "l";
+        ops[VectorGraphics2D.OP_CURVETO] = "c";
+        ops[VectorGraphics2D.OP_CLOSEPATH] = "h";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PsWriter ps = new PsWriter(bytes, PRECISION);
+        buffer.write(ps, ops, new AffineTransform(), tolerance);
+        ps.flush();
+
+        String[] tokens = bytes.toString().trim().split("\\s+");
+        List<Double> numbers = new ArrayList<Double>();
+        for(int i=0; i<tokens.length; i++) {
+            if(tokens[i].equals("m") || tokens[i].equals("l"))
+                continue;
+            numbers.add(Double.valueOf(tokens[i]));
+        }
+        double[] written = new double[numbers.size()];
+        for(int i=0; i<written.length; i++)
+            written[i] = numbers.get(i).doubleValue();
+        return written;
+    }
+
+    /** Returns the largest distance from a vertex of one polyline to the
+     * other polyline.
+     */
+    private static double deviation(double[] from, double[] to) {
+        double max = 0;
+        for(int i=0; i<from.length; i+=2) {
+            double min = Double.MAX_VALUE;
+            for(int j=0; j+3<to.length; j+=2)
+                min = Math.min(min, distance(from[i], from[i+1], to[j], to[j+1], to[j+2], to[j+3]));
+            if(to.length == 2)
+                min = Math.hypot(from[i] - to[0], from[i+1] - to[1]);
+            max = Math.max(max, min);
+        }
+        return max;
+    }
+
+    /** Returns the distance from a point to a line segment. */
+    private static double distance(double x, double y, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double lengthSq = dx*dx + dy*dy;
+        double t = lengthSq == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - (ax + t * dx), y - (ay + t * dy));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * StartupBenchmark.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Measures the startup of one-shot command line runs, without and with
+ * the class data sharing archive made by <code>ant cds</code>.
+ * <p>
+ * Each run starts a new JVM that renders one diagram of the corpus to a
+ * file, and is timed from the start of the process to the first byte of
+ * the file (time to first byte) and to the exit of the process. The median
+ * of the runs is reported. JMH cannot measure this, since it times code in
+ * a JVM that has already started.
+ * <p>
+ * Run it with <code>ant startup</code>, after <code>ant cds</code>.
+ * The arguments are the jar, the archive, the diagram and the number of
+ * runs.
+ *
+ * @author Mikael Brannstrom
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length != 4) {
+            System.err.println("Usage: StartupBenchmark <jar> <archive> <diagram.txt> <runs>");
+            System.exit(2);
+        }
+        File jar = new File(args[0]).getAbsoluteFile();
+        File archive = new File(args[1]).getAbsoluteFile();
+        String diagram = args[2];
+        int runs = Integer.parseInt(args[3]);
+        File output = File.createTempFile("startup", ".eps");
+        output.deleteOnExit();
+
+        List<String> plain = command(jar, null, diagram, output);
+        report("without archive", plain, output, runs);
+        if(archive.isFile()) {
+            report("with archive", command(jar, archive, diagram, output), output, runs);
+        } else {
+            System.out.println("No archive at "+archive+"; run ant cds first");
+        }
+    }
+
+    private static List<String> command(File jar, File archive, String diagram, File output) {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if(archive != null) {
+            command.add("-Xshare:auto");
+            command.add("-XX:SharedArchiveFile="+archive.getPath());
+        }
+        command.add("-Djava.awt.headless=true");
+        command.addAll(Arrays.asList(new String[] {
+            "-jar", jar.getPath(), "-o", diagram, output.getPath()
+        }));
+        return command;
+    }
+
+    /** Runs a command a number of times and prints the median times. */
+    private static void report(String name, List<String> command, File output, int runs) throws IOException, InterruptedException {
+        long[] firstByte = new long[runs];
+        long[] exit = new long[runs];
+        for(int i=0; i<runs; i++) {
+            output.delete();
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(output.getPath()+".log")));
+            long start = System.nanoTime();
+            Process process = builder.start();
+            firstByte[i] = -1;
+            while(true) {
+                if(firstByte[i] < 0 && output.length() > 0)
+                    firstByte[i] = System.nanoTime() - start;
+                if(!isAlive(process))
+                    break;
+                Thread.sleep(1);
+            }
+            exit[i] = System.nanoTime() - start;
+            if(process.exitValue() != 0)
+                throw new IOException("Run failed with exit code "+process.exitValue()+", see "+output+".log");
+            if(firstByte[i] < 0)
+                firstByte[i] = exit[i];
+        }
+        new File(output.getPath()+".log").delete();
+        System.out.println(name+": time to first byte "+median(firstByte)+" ms, exit "+median(exit)+" ms ("+runs+" runs)");
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1000000;
+    }
+}
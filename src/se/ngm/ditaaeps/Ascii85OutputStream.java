@@ -0,0 +1,123 @@
+/*
+ * Ascii85OutputStream.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Encodes bytes as ASCII base-85, as read by the PostScript
+ * <code>ASCII85Decode</code> filter.
+ * <p>
+ * The encoded text is broken into lines of at most 72 characters, and a
+ * line never starts with <code>%</code>, so that it cannot be taken for a
+ * DSC comment. <code>finish</code> writes the end of data marker
+ * <code>~&gt;</code>; the underlying stream is not closed.
+ *
+ * @author Mikael Brannstrom
+ */
+class Ascii85OutputStream extends FilterOutputStream {
+
+    private static final int LINE_LENGTH = 72;
+
+    private final byte[] encoded = new byte[4096];
+    private int pos = 0;
+    private int column = 0;
+    private long tuple = 0;
+    private int count = 0;
+
+    /** Creates a new instance of Ascii85OutputStream.
+     * @param out where the encoded text is written to.
+     */
+    Ascii85OutputStream(OutputStream out) {
+        super(out);
+    }
+
+    public void write(int b) throws IOException {
+        tuple = (tuple << 8) | (b & 0xff);
+        if(++count == 4) {
+            encodeTuple(4);
+            tuple = 0;
+            count = 0;
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        for(int i=off; i<off+len; i++)
+            write(b[i]);
+    }
+
+    /** Encodes the last bytes and writes the end of data marker, without
+     * closing the underlying stream.
+     */
+    void finish() throws IOException {
+        if(count > 0) {
+            tuple <<= 8 * (4 - count);
+            encodeTuple(count);
+            tuple = 0;
+            count = 0;
+        }
+        if(column + 2 > LINE_LENGTH)
+            newLine();
+        put('~');
+        put('>');
+        put('\n');
+        flushEncoded();
+        out.flush();
+    }
+
+    public void flush() throws IOException {
+        flushEncoded();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        finish();
+    }
+
+    /** Encodes the tuple, of which <code>bytes</code> bytes are data. */
+    private void encodeTuple(int bytes) throws IOException {
+        if(bytes == 4 && tuple == 0) {
+            if(column + 1 > LINE_LENGTH)
+                newLine();
+            put('z');
+            return;
+        }
+        long t = tuple;
+        char[] digits = new char[5];
+        for(int i=4; i>=0; i--) {
+            digits[i] = (char)('!' + t % 85);
+            t /= 85;
+        }
+        for(int i=0; i<=bytes; i++) {
+            if(column == LINE_LENGTH)
+                newLine();
+            if(column == 0 && digits[i] == '%')
+                put(' ');
+            put(digits[i]);
+        }
+    }
+
+    private void newLine() throws IOException {
+        put('\n');
+        column = 0;
+    }
+
+    private void put(char ch) throws IOException {
+        if(pos == encoded.length)
+            flushEncoded();
+        encoded[pos++] = (byte)ch;
+        column = ch == '\n' ? 0 : column + 1;
+    }
+
+    private void flushEncoded() throws IOException {
+        if(pos > 0) {
+            out.write(encoded, 0, pos);
+            pos = 0;
+        }
+    }
+}
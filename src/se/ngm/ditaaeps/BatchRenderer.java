@@ -0,0 +1,266 @@
+/*
+ * BatchRenderer.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.core.FileUtils;
+import org.stathissideris.ascii2image.graphics.Diagram;
+import org.stathissideris.ascii2image.text.TextGrid;
+
+/** Renders many diagrams in one JVM using a bounded pool of worker threads.
+ * <p>
+ * Inputs are added with <code>addInput</code> and <code>addManifest</code>
+ * and rendered with <code>run</code>, which prints a summary of the
+ * rendered and failed files instead of stopping at the first failure.
+ * <p>
+ * With a bundle, each input is rendered to a page of the bundle instead of
+ * to an EPS file of its own.
+ *
+ * @author Mikael Brannstrom
+ */
+public class BatchRenderer {
+
+    private final ConversionOptions options;
+    private final EpsOptions epsOptions;
+    private final int threads;
+    private final List<Job> jobs = new ArrayList<Job>();
+    private DiagramCache cache;
+    private boolean printStats = false;
+    private PrintWriter statsJson;
+    private PsBundle bundle;
+    private DiagramRenderer renderer;
+
+    /** Creates a new instance of BatchRenderer.
+     * @param options the conversion options used for all inputs.
+     * @param epsOptions the options of the EPS output used for all inputs.
+     * @param threads the number of worker threads.
+     */
+    public BatchRenderer(ConversionOptions options, EpsOptions epsOptions, int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be positive: "+threads);
+        this.options = options;
+        this.epsOptions = epsOptions;
+        this.threads = threads;
+    }
+
+    /** Sets the cache of rendered diagrams, or <code>null</code> for none.
+     */
+    public void setCache(DiagramCache cache) {
+        this.cache = cache;
+    }
+
+    /** Sets the bundle the inputs are rendered to as pages, or
+     * <code>null</code> to render each input to an EPS file. The cache is
+     * not used for bundles.
+     */
+    public void setBundle(PsBundle bundle) {
+        this.bundle = bundle;
+    }
+
+    /** Sets how the stats of each input are reported.
+     * @param printStats if the stats are printed after the summary line.
+     * @param statsJson where the stats are written as JSON lines, or
+     * <code>null</code>.
+     */
+    public void setStats(boolean printStats, PrintWriter statsJson) {
+        this.printStats = printStats;
+        this.statsJson = statsJson;
+    }
+
+    /** Adds an input, which is either a file, a directory (all its
+     * <code>.txt</code> files are added) or a glob with <code>*</code>
+     * and <code>?</code> in its last path element.
+     * The output filename is chosen as for a single input.
+     */
+    public void addInput(String input) {
+        File file = new File(input);
+        if(file.isDirectory()) {
+            addMatching(file, Pattern.compile(".*\\.txt"));
+        } else if(!file.exists() && (file.getName().indexOf('*') >= 0 || file.getName().indexOf('?') >= 0)) {
+            File dir = file.getParentFile();
+            addMatching(dir == null ? new File(".") : dir, globToPattern(file.getName()));
+        } else {
+            addInput(input, null);
+        }
+    }
+
+    /** Adds an input file and the EPS file it is rendered to.
+     * @param toFilename the output file, or <code>null</code> to choose it
+     * as for a single input.
+     */
+    public void addInput(String filename, String toFilename) {
+        jobs.add(new Job(filename, toFilename));
+    }
+
+    /** Adds the inputs listed in a manifest file. Each line holds an input
+     * file optionally followed by whitespace and its output file. Blank lines
+     * and lines starting with <code>#</code> are ignored.
+     * @throws IOException if the manifest cannot be read.
+     */
+    public void addManifest(String manifest) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#"))
+                    continue;
+                String[] parts = line.split("\\s+", 2);
+                addInput(parts[0], parts.length > 1 ? parts[1] : null);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Returns true if no inputs have been added.
+     */
+    public boolean isEmpty() {
+        return jobs.isEmpty();
+    }
+
+    /** Renders all inputs and prints one summary line per input.
+     * @param log where the summary is printed.
+     * @return the number of inputs that failed.
+     */
+    public int run(PrintStream log) {
+        if(jobs.isEmpty()) {
+            log.println("0 rendered, 0 failed");
+            return 0;
+        }
+        renderer = new DiagramRenderer(options, epsOptions, cache, null);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()));
+        List<Future<Job>> futures;
+        try {
+            futures = executor.invokeAll(jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return jobs.size();
+        } finally {
+            executor.shutdown();
+        }
+
+        int failures = 0;
+        for(Future<Job> future : futures) {
+            Job job;
+            try {
+                job = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return jobs.size();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Job.call threw "+e.getCause(), e.getCause());
+            }
+            if(job.error == null) {
+                String to = bundle == null ? job.toFilename : "page "+job.page;
+                log.println("OK     "+job.filename+" -> "+to+" ("+(job.time / 1000.0)+" sec)");
+                if(printStats)
+                    log.println(job.stats);
+                if(statsJson != null)
+                    statsJson.println(job.stats.toJson(job.filename));
+            } else {
+                log.println("FAILED "+job.filename+": "+job.error);
+                failures++;
+            }
+        }
+        log.println(""+(jobs.size() - failures)+" rendered, "+failures+" failed");
+        return failures;
+    }
+
+    private void addMatching(File dir, Pattern pattern) {
+        String[] names = dir.list();
+        if(names == null)
+            return;
+        Arrays.sort(names);
+        for(int i=0; i<names.length; i++) {
+            File file = new File(dir, names[i]);
+            if(file.isFile() && pattern.matcher(names[i]).matches())
+                addInput(file.getPath(), null);
+        }
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<glob.length(); i++) {
+            char ch = glob.charAt(i);
+            switch(ch) {
+                case '*':
+                    sb.append(".*");
+                    break;
+                case '?':
+                    sb.append('.');
+                    break;
+                default:
+                    sb.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    private class Job implements Callable<Job> {
+        final String filename;
+        String toFilename;
+        String error;
+        long time;
+        RenderStats stats;
+        int page;
+
+        Job(String filename, String toFilename) {
+            this.filename = filename;
+            this.toFilename = toFilename;
+        }
+
+        public Job call() {
+            long startTime = System.currentTimeMillis();
+            try {
+                if(printStats || statsJson != null)
+                    stats = new RenderStats();
+                if(bundle != null) {
+                    renderPage();
+                } else {
+                    if(toFilename == null)
+                        toFilename = FileUtils.makeTargetPathname(filename, epsOptions.getFileExtension(), options.processingOptions.overwriteFiles());
+                    renderer.renderFile(filename, toFilename, stats);
+                }
+            } catch (IOException e) {
+                error = e.getMessage();
+            } catch (Throwable e) {
+                // also errors, e.g. a StackOverflowError in ditaa, so that
+                // one input does not stop the others
+                error = e.toString();
+            }
+            time = System.currentTimeMillis() - startTime;
+            return this;
+        }
+
+        private void renderPage() throws IOException {
+            if(stats != null) stats.begin();
+            TextGrid grid = new TextGrid();
+            if(!grid.loadFrom(filename, options.processingOptions))
+                throw new IOException("Cannot open file "+filename+" for reading");
+            if(stats != null) stats.lap(RenderStats.LOAD);
+            Diagram diagram = new Diagram(grid, options);
+            if(stats != null) stats.lap(RenderStats.DIAGRAM);
+            page = bundle.addPage(filename, diagram, options.renderingOptions, stats);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * DiagramCache.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.core.ProcessingOptions;
+import org.stathissideris.ascii2image.core.RenderingOptions;
+import org.stathissideris.ascii2image.graphics.CustomShapeDefinition;
+
+/** A content-addressed cache of rendered EPS files.
+ * <p>
+ * The key of a diagram is a hash of its text, all conversion options and
+ * the output version of the renderer, so a hit can be served without
+ * building a <code>TextGrid</code> or a <code>Diagram</code>.
+ * The EPS or PDF files are stored in a directory, optionally fronted by an
+ * in-memory LRU cache. Both are bounded in size; the disk cache evicts the
+ * least recently used files when it grows too large.
+ * <p>
+ * Files are written to a temporary file and renamed into place, so several
+ * processes can share a cache directory. The cache is thread safe.
+ *
+ * @author Mikael Brannstrom
+ */
+public class DiagramCache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File dir;
+    private final long maxDiskSize;
+    private long diskSize = -1;
+
+    private long maxMemorySize = 0;
+    private long memorySize = 0;
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Creates a new instance of DiagramCache.
+     * @param dir the directory the EPS files are stored in. It is created
+     * if it does not exist.
+     * @param maxDiskSize the maximum number of bytes stored in the directory.
+     */
+    public DiagramCache(File dir, long maxDiskSize) {
+        this.dir = dir;
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    /** Sets the maximum number of bytes kept in memory. The default is 0,
+     * i.e. no in-memory cache.
+     */
+    public synchronized void setMaxMemorySize(long maxMemorySize) {
+        this.maxMemorySize = maxMemorySize;
+        trimMemory();
+    }
+
+    /** Returns the key of a diagram. It ends with the extension of the
+     * output, which is the extension of the file it is stored in.
+     * @param text the ASCII art of the diagram.
+     * @param options the conversion options it is rendered with.
+     * @param epsOptions the options of the EPS output.
+     */
+    public String getKey(String text, ConversionOptions options, EpsOptions epsOptions) {
+        return makeKey(text, options, epsOptions);
+    }
+
+    /** Returns the key of a diagram, as <code>getKey</code>. */
+    static String makeKey(String text, ConversionOptions options, EpsOptions epsOptions) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("ditaa-eps ").append(EpsRenderer.OUTPUT_VERSION).append('\n');
+        appendOptions(sb, options);
+        sb.append(epsOptions);
+        try {
+            digest.update(sb.toString().getBytes("UTF-8"));
+            digest.update(normalize(text).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] hash = digest.digest();
+        char[] key = new char[hash.length * 2];
+        for(int i=0; i<hash.length; i++) {
+            key[2*i] = HEX[(hash[i] >> 4) & 0xf];
+            key[2*i+1] = HEX[hash[i] & 0xf];
+        }
+        return new String(key)+"."+epsOptions.getFileExtension();
+    }
+
+    /** Returns the cached EPS for a key, or <code>null</code> on a miss.
+     */
+    public byte[] get(String key) {
+        synchronized(this) {
+            byte[] eps = memory.get(key);
+            if(eps != null) {
+                memoryHits.incrementAndGet();
+                return eps;
+            }
+        }
+        File file = getFile(key);
+        byte[] eps;
+        try {
+            eps = readFile(file);
+        } catch (IOException e) {
+            // missing, or evicted while being read
+            misses.incrementAndGet();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        diskHits.incrementAndGet();
+        putInMemory(key, eps);
+        return eps;
+    }
+
+    /** Stores the EPS for a key.
+     * @throws IOException if the EPS cannot be written to the cache directory.
+     */
+    public void put(String key, byte[] eps) throws IOException {
+        putInMemory(key, eps);
+
+        File file = getFile(key);
+        File parent = file.getParentFile();
+        if(!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            throw new IOException("Cannot create cache directory "+parent);
+        File tmp = File.createTempFile(key.substring(0, 8), ".tmp", parent);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(eps);
+            } finally {
+                out.close();
+            }
+            if(!tmp.renameTo(file)) {
+                if(!file.exists())
+                    throw new IOException("Cannot rename "+tmp+" to "+file);
+                // stored concurrently by someone else, with the same content
+            }
+        } finally {
+            tmp.delete();
+        }
+
+        boolean evict;
+        synchronized(this) {
+            if(diskSize >= 0)
+                diskSize += eps.length;
+            evict = diskSize < 0 || diskSize > maxDiskSize;
+        }
+        if(evict)
+            evict();
+    }
+
+    /** Returns the number of hits served from memory. */
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /** Returns the number of hits served from the cache directory. */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /** Returns the total number of hits. */
+    public long getHits() {
+        return memoryHits.get() + diskHits.get();
+    }
+
+    /** Returns the number of misses. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the number of files evicted from the cache directory. */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public String toString() {
+        return "Cache: "+getHits()+" hits ("+getMemoryHits()+" in memory), "+
+                getMisses()+" misses, "+getEvictions()+" evictions";
+    }
+
+    private File getFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key);
+    }
+
+    private synchronized void putInMemory(String key, byte[] eps) {
+        if(eps.length > maxMemorySize)
+            return;
+        byte[] old = memory.put(key, eps);
+        if(old != null)
+            memorySize -= old.length;
+        memorySize += eps.length;
+        trimMemory();
+    }
+
+    private void trimMemory() {
+        Iterator<byte[]> it = memory.values().iterator();
+        while(memorySize > maxMemorySize && it.hasNext()) {
+            memorySize -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /** Deletes the least recently used files until the cache directory is
+     * below 90% of its maximum size.
+     */
+    private synchronized void evict() {
+        List<File> files = new ArrayList<File>();
+        File[] subdirs = dir.listFiles();
+        if(subdirs == null)
+            return;
+        long size = 0;
+        for(int i=0; i<subdirs.length; i++) {
+            File[] entries = subdirs[i].listFiles();
+            if(entries == null)
+                continue;
+            for(int j=0; j<entries.length; j++) {
+                String name = entries[j].getName();
+                if(name.endsWith(".eps") || name.endsWith(".pdf")) {
+                    files.add(entries[j]);
+                    size += entries[j].length();
+                }
+            }
+        }
+        if(size > maxDiskSize) {
+            final Map<File, Long> lastModified = new HashMap<File, Long>();
+            for(File file : files)
+                lastModified.put(file, Long.valueOf(file.lastModified()));
+            Collections.sort(files, new Comparator<File>() {
+                public int compare(File a, File b) {
+                    return lastModified.get(a).compareTo(lastModified.get(b));
+                }
+            });
+            for(int i=0; i<files.size() && size > maxDiskSize * 9 / 10; i++) {
+                File file = files.get(i);
+                long length = file.length();
+                if(file.delete()) {
+                    size -= length;
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        diskSize = size;
+    }
+
+    /** Makes texts that give the same diagram equal: line breaks are made
+     * <code>\n</code> and trailing line breaks are removed, as
+     * <code>TextGrid</code> does when splitting the text into rows.
+     * Trailing spaces are kept since they can widen the diagram.
+     */
+    static String normalize(String text) {
+        String s = text.replace("\r\n", "\n");
+        int end = s.length();
+        while(end > 0 && s.charAt(end-1) == '\n')
+            end--;
+        return s.substring(0, end);
+    }
+
+    private static void appendOptions(StringBuilder sb, ConversionOptions options) {
+        ProcessingOptions p = options.processingOptions;
+        sb.append("roundCorners=").append(p.areAllCornersRound()).append('\n');
+        sb.append("colorCodes=").append(p.getColorCodesProcessingMode()).append('\n');
+        sb.append("tags=").append(p.getTagProcessingMode()).append('\n');
+        sb.append("separation=").append(p.performSeparationOfCommonEdges()).append('\n');
+        sb.append("tabSize=").append(p.getTabSize()).append('\n');
+        Map<String, CustomShapeDefinition> shapes = p.getCustomShapes();
+        if(shapes != null) {
+            Iterator<Map.Entry<String, CustomShapeDefinition>> it =
+                    new TreeMap<String, CustomShapeDefinition>(shapes).entrySet().iterator();
+            while(it.hasNext()) {
+                Map.Entry<String, CustomShapeDefinition> entry = it.next();
+                CustomShapeDefinition def = entry.getValue();
+                sb.append("shape=").append(entry.getKey())
+                        .append(' ').append(def.getFilename())
+                        .append(' ').append(def.stretches())
+                        .append(' ').append(def.dropsShadow())
+                        .append(' ').append(def.hasBorder()).append('\n');
+            }
+        }
+        RenderingOptions r = options.renderingOptions;
+        sb.append("shadows=").append(r.dropShadows()).append('\n');
+        sb.append("debugLines=").append(r.renderDebugLines()).append('\n');
+        sb.append("antialias=").append(r.performAntialias()).append('\n');
+        sb.append("scale=").append(r.getScale()).append('\n');
+        sb.append("cell=").append(r.getCellWidth()).append('x').append(r.getCellHeight()).append('\n');
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long length = file.length();
+            byte[] buf = new byte[(int)length];
+            int off = 0;
+            while(off < buf.length) {
+                int n = in.read(buf, off, buf.length - off);
+                if(n < 0)
+                    throw new IOException("Unexpected end of file "+file);
+                off += n;
+            }
+            return buf;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * DiagramRenderer.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.text.TextGrid;
+
+/** Renders diagrams with one configuration, for embedding in a program
+ * that renders from many threads at once.
+ * <p>
+ * The configuration is given once, to the constructor. The EPS options are
+ * copied; the conversion options are only read, and must not be changed
+ * while the renderer is in use. All methods may then be called from any
+ * number of threads. The buffers that the paths and the output are written
+ * to are kept per thread and reused, and the strokes are shared.
+ * <p>
+ * The renderer never prints anything or exits; failures are thrown, and
+ * the stats of each diagram go to the listener, if there is one.
+ *
+ * @author Mikael Brannstrom
+ */
+public class DiagramRenderer {
+
+    private final ConversionOptions options;
+    private final EpsOptions epsOptions;
+    private final DiagramCache cache;
+    private final RenderListener listener;
+
+    /** Creates a new instance of DiagramRenderer, without a cache or a
+     * listener.
+     * @param options the conversion options.
+     * @param epsOptions the options of the EPS or PDF output.
+     */
+    public DiagramRenderer(ConversionOptions options, EpsOptions epsOptions) {
+        this(options, epsOptions, null, null);
+    }
+
+    /** Creates a new instance of DiagramRenderer.
+     * @param options the conversion options.
+     * @param epsOptions the options of the EPS or PDF output.
+     * @param cache the cache of rendered diagrams, or <code>null</code> to
+     * always render.
+     * @param listener what is told about each rendered diagram, or
+     * <code>null</code>.
+     */
+    public DiagramRenderer(ConversionOptions options, EpsOptions epsOptions, DiagramCache cache, RenderListener listener) {
+        this.options = options;
+        this.epsOptions = new EpsOptions(epsOptions);
+        this.cache = cache;
+        this.listener = listener;
+        EpsRenderer.prepareForConcurrentUse();
+    }
+
+    /** Renders a diagram given as text.
+     * @param text the ASCII art of the diagram.
+     * @return the EPS, or the PDF if the options say so.
+     * @throws IOException if the text cannot be read as a diagram.
+     */
+    public byte[] render(String text) throws IOException {
+        RenderStats stats = createStats();
+        byte[] eps = EpsRenderer.renderText(text, options, epsOptions, cache, stats);
+        rendered(null, stats);
+        return eps;
+    }
+
+    /** Renders a diagram given as text to a stream, which is not closed.
+     * Without a cache the output is written straight into the stream.
+     * @param text the ASCII art of the diagram.
+     * @param out where the EPS, or the PDF if the options say so, is
+     * written to.
+     * @throws IOException if the text cannot be read as a diagram, or
+     * writing to the stream fails.
+     */
+    public void render(String text, OutputStream out) throws IOException {
+        RenderStats stats = createStats();
+        if(cache != null)
+            out.write(EpsRenderer.renderText(text, options, epsOptions, cache, stats));
+        else
+            EpsRenderer.renderText(text, out, options, epsOptions, stats);
+        rendered(null, stats);
+    }
+
+    /** Renders a grid that has already been loaded to a stream, which is
+     * not closed. The cache is not used, since it is keyed on the text.
+     * @param grid the grid of the diagram.
+     * @param out where the EPS, or the PDF if the options say so, is
+     * written to.
+     * @throws IOException if writing to the stream fails.
+     */
+    void render(TextGrid grid, OutputStream out) throws IOException {
+        RenderStats stats = createStats();
+        EpsRenderer.renderGrid(grid, out, options, epsOptions, stats);
+        rendered(null, stats);
+    }
+
+    /** Renders the diagram in a text file to a file.
+     * @param filename the text file to read the diagram from.
+     * @param toFilename the EPS or PDF file to write.
+     * @throws IOException if the text file cannot be read or the output
+     * file cannot be written.
+     */
+    public void renderFile(String filename, String toFilename) throws IOException {
+        renderFile(filename, toFilename, createStats());
+    }
+
+    /** Renders the diagram in a text file to a file, adding the timings and
+     * counts to the given stats.
+     * @param stats where the timings and counts are added, or
+     * <code>null</code>.
+     */
+    void renderFile(String filename, String toFilename, RenderStats stats) throws IOException {
+        EpsRenderer.renderFile(filename, toFilename, options, epsOptions, cache, stats);
+        rendered(filename, stats);
+    }
+
+    /** Returns the options of the output. They must not be changed. */
+    public EpsOptions getEpsOptions() {
+        return epsOptions;
+    }
+
+    /** Returns the conversion options. They must not be changed. */
+    public ConversionOptions getOptions() {
+        return options;
+    }
+
+    /** Returns stats to fill in if there is a listener to give them to. */
+    private RenderStats createStats() {
+        return listener != null ? new RenderStats() : null;
+    }
+
+    private void rendered(String name, RenderStats stats) {
+        if(listener != null && stats != null)
+            listener.rendered(name, stats);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * DiagramWatcher.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.core.FileUtils;
+
+/** Watches directories of diagrams and re-renders the diagrams that change.
+ * <p>
+ * Change events are collected until none has arrived for the debounce
+ * time, and only the files whose content hash has changed since they were
+ * last rendered are rendered again. When started, diagrams whose EPS file is
+ * missing or older than the text file are rendered.
+ * <p>
+ * The EPS files are written where <code>FileUtils.makeTargetPathname</code>
+ * puts them with overwriting on, so that each diagram keeps its EPS file
+ * when it is re-rendered.
+ *
+ * @author Mikael Brannstrom
+ */
+public class DiagramWatcher {
+
+    private final ConversionOptions options;
+    private final EpsOptions epsOptions;
+    private DiagramCache cache;
+    private long debounce = 300;
+    private DiagramRenderer renderer;
+
+    /** The watched directories and the names of the files watched in them,
+     * or <code>null</code> for all <code>.txt</code> files.
+     */
+    private final Map<Path, Set<String>> dirs = new LinkedHashMap<Path, Set<String>>();
+    private final Map<Path, byte[]> hashes = new HashMap<Path, byte[]>();
+
+    /** Creates a new instance of DiagramWatcher.
+     * @param options the conversion options used for all diagrams.
+     * @param epsOptions the options of the EPS output used for all diagrams.
+     */
+    public DiagramWatcher(ConversionOptions options, EpsOptions epsOptions) {
+        this.options = options;
+        this.epsOptions = epsOptions;
+    }
+
+    /** Sets the cache of rendered diagrams, or <code>null</code> for none.
+     */
+    public void setCache(DiagramCache cache) {
+        this.cache = cache;
+    }
+
+    /** Sets the number of milliseconds without change events to wait for
+     * before rendering. The default is 300.
+     */
+    public void setDebounce(long debounce) {
+        this.debounce = debounce;
+    }
+
+    /** Adds an input to watch, which is either a directory (all its
+     * <code>.txt</code> files are watched) or a file.
+     */
+    public void addInput(String input) {
+        Path path = new File(input).getAbsoluteFile().toPath().normalize();
+        if(Files.isDirectory(path)) {
+            dirs.put(path, null);
+        } else {
+            Path dir = path.getParent();
+            if(dirs.containsKey(dir) && dirs.get(dir) == null)
+                return;
+            Set<String> names = dirs.get(dir);
+            if(names == null) {
+                names = new HashSet<String>();
+                dirs.put(dir, names);
+            }
+            names.add(path.getFileName().toString());
+        }
+    }
+
+    /** Renders the diagrams that are out of date and then watches for
+     * changes until the thread is interrupted, printing one line per
+     * rendered diagram.
+     * @param log where the rendered diagrams are printed.
+     * @throws IOException if a directory cannot be watched.
+     */
+    public void run(PrintStream log) throws IOException {
+        renderer = new DiagramRenderer(options, epsOptions, cache, null);
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        try {
+            Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+            Set<Path> changed = new TreeSet<Path>();
+            for(Path dir : dirs.keySet()) {
+                keys.put(dir.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE), dir);
+                addOutOfDate(dir, changed);
+            }
+            render(changed, log);
+            log.println("Watching "+dirs.size()+" directories for changes");
+
+            while(true) {
+                WatchKey key = watcher.take();
+                changed.clear();
+                do {
+                    Path dir = keys.get(key);
+                    if(dir != null)
+                        addChanged(dir, key, changed);
+                    if(!key.reset())
+                        keys.remove(key);
+                    key = watcher.poll(debounce, TimeUnit.MILLISECONDS);
+                } while(key != null);
+                render(changed, log);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watcher.close();
+        }
+    }
+
+    private boolean isWatched(Path dir, Path file) {
+        Set<String> names = dirs.get(dir);
+        String name = file.getFileName().toString();
+        return names == null ? name.endsWith(".txt") : names.contains(name);
+    }
+
+    private void addOutOfDate(Path dir, Set<Path> changed) throws IOException {
+        DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+        try {
+            for(Path file : files) {
+                if(!isWatched(dir, file) || !Files.isRegularFile(file))
+                    continue;
+                File target = new File(getTarget(file));
+                if(target.lastModified() < file.toFile().lastModified()) {
+                    changed.add(file);
+                } else {
+                    byte[] hash = hash(file);
+                    if(hash != null)
+                        hashes.put(file, hash);
+                }
+            }
+        } finally {
+            files.close();
+        }
+    }
+
+    private void addChanged(Path dir, WatchKey key, Set<Path> changed) throws IOException {
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, check the whole directory
+                addOutOfDate(dir, changed);
+                for(Path file : hashes.keySet()) {
+                    if(file.getParent().equals(dir))
+                        changed.add(file);
+                }
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if(!isWatched(dir, file))
+                continue;
+            if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                hashes.remove(file);
+                changed.remove(file);
+            } else {
+                changed.add(file);
+            }
+        }
+    }
+
+    private void render(Set<Path> changed, PrintStream log) {
+        Iterator<Path> it = changed.iterator();
+        while(it.hasNext()) {
+            Path file = it.next();
+            if(!Files.isRegularFile(file))
+                continue;
+            byte[] hash = hash(file);
+            if(hash == null)
+                continue;
+            byte[] oldHash = hashes.get(file);
+            if(oldHash != null && MessageDigest.isEqual(hash, oldHash))
+                continue;
+
+            long startTime = System.currentTimeMillis();
+            String filename = file.toString();
+            String toFilename = getTarget(file);
+            try {
+                renderer.renderFile(filename, toFilename);
+                // only once rendered, so that a diagram that failed is
+                // rendered again when it is saved, even if unchanged
+                hashes.put(file, hash);
+                long time = System.currentTimeMillis() - startTime;
+                log.println("OK     "+filename+" -> "+toFilename+" ("+(time / 1000.0)+" sec)");
+            } catch (IOException e) {
+                hashes.remove(file);
+                log.println("FAILED "+filename+": "+e.getMessage());
+            } catch (RuntimeException e) {
+                hashes.remove(file);
+                log.println("FAILED "+filename+": "+e);
+            }
+        }
+    }
+
+    private String getTarget(Path file) {
+        return FileUtils.makeTargetPathname(file.toString(), epsOptions.getFileExtension(), true);
+    }
+
+    /** Returns the SHA-256 hash of a file, or <code>null</code> if it cannot
+     * be read, e.g. because it is being replaced.
+     */
+    private static byte[] hash(Path file) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            return digest.digest(Files.readAllBytes(file));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
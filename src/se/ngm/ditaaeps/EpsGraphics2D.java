@@ -6,498 +6,367 @@
 
 package se.ngm.ditaaeps;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.Composite;
-import java.awt.Font;
-import java.awt.FontMetrics;
-import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.GraphicsConfiguration;
-import java.awt.Image;
-import java.awt.Paint;
-import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.Shape;
-import java.awt.Stroke;
-import java.awt.font.FontRenderContext;
-import java.awt.font.GlyphVector;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.BufferedImageOp;
-import java.awt.image.ImageObserver;
-import java.awt.image.RenderedImage;
-import java.awt.image.renderable.RenderableImage;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.text.AttributedCharacterIterator;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
+import java.util.zip.Deflater;
 
-/** A Graphics2D that paints to an EPS PrintWriter instead of to a screen
- * or an image.
+/** A Graphics2D that paints to an EPS OutputStream, WritableByteChannel or
+ * PrintWriter instead of to a screen or an image.
  * <p>
- * Only the methods necessary for EpsRenderer are implemented, i.e. the following:
- * <ul>
- * <li>Fill and draw shapes
- * <li>Draw string at x-y
- * <li>Color, Font (only size) and stroke (only BasicStroke)
- * </ul>
+ * The <code>finish</code> or <code>dispose</code> method must be called to
+ * "close" the EPS. Only <code>dispose</code> of an EpsGraphics2D created with
+ * a PrintWriter closes it; other sinks are left open for the caller.
  * <p>
- * The <code>dispose</code> method must be called to "close" the EPS.
+ * In compact mode (see <code>EpsOptions</code>) the operators are written
+ * with short names defined in the prolog, e.g. <code>l</code> for
+ * <code>lineto</code>.
+ * <p>
+ * With compression (see <code>EpsOptions</code>) the drawing is written
+ * through the <code>FlateDecode</code> and <code>ASCII85Decode</code>
+ * filters of PostScript Level 3, compressed as it is written; the header,
+ * prolog, setup and trailer stay plain text.
+ * <p>
+ * With tight bounds (see <code>EpsOptions</code>) the bounding box is
+ * that of what is painted, which is known only at the end, so the header
+ * defers it to the trailer with <code>(atend)</code>.
+ * <p>
+ * An EpsGraphics2D can also write one page of a <code>PsBundle</code>, in
+ * which case the header, prolog and trailer are left to the bundle.
  * 
  * @author Mikael Brannstrom
  */
-public class EpsGraphics2D extends Graphics2D {
+public class EpsGraphics2D extends VectorGraphics2D {
     
-    private PrintWriter out;
-    private AffineTransform transform = new AffineTransform();
-
-    private Stroke stroke = new BasicStroke();
-    private boolean isStrokeDirty = true;
-    private Color color = Color.BLACK;
-    private boolean isColorDirty = true;
-    private Font font = null;
-    private boolean isFontDirty = true;
+    /** The most texts written by one run, so that the operand stack of any
+     * interpreter can hold them.
+     */
+    private static final int MAX_RUN = 64;
     
-    /** Creates a new instance of EpsGraphics2D.
-     * @param out where the EPS will be written to.
-     * @param boundingBox the bounding box of the EPS.
+    /** The operators, indexed by the OP_ constants. */
+    private static final String[] OPS = {
+        "newpath", "moveto", "lineto", "curveto", "closepath",
+        "fill", "stroke", "setrgbcolor",
+        "setlinewidth", "setlinecap", "setdash",
+        "moveto show", "gsave fill grestore",
+        "gsave", "grestore", "translate",
+        "setlinejoin", "gsave setrgbcolor fill grestore",
+        "setfont", "aload length 3 idiv {moveto show} repeat"
+    };
+    
+    /** The short names of the operators in compact mode. They are defined in
+     * the prolog, in a dictionary of their own.
      */
-    public EpsGraphics2D(PrintWriter out, Rectangle2D boundingBox) {
-        this.out = out;
-        initEps(boundingBox);
-    }
+    private static final String[] COMPACT_OPS = {
+        "n", "m", "l", "c", "h",
+        "f", "s", "rg",
+        "w", "J", "d",
+        "t", "F",
+        "q", "Q", "T",
+        "j", "Fc",
+        "SF", "ts"
+    };
     
-    private void initEps(Rectangle2D bounds) {
-        out.println("%!PS-Adobe-3.0 EPSF-3.0");
-        out.println("%%BoundingBox: "+
-                (int)bounds.getMinX()+" "+
-                (int)bounds.getMinY()+" "+
-                (int)bounds.getMaxX()+" "+
-                (int)bounds.getMaxY());
-        out.println("%%HiResBoundingBox: "+
-                bounds.getMinX()+" "+
-                bounds.getMinY()+" "+
-                bounds.getMaxX()+" "+
-                bounds.getMaxY());
-        out.println("%%Creator: DitaaEps");
-        out.println("%%EndComments");
-        out.println("%%BeginProlog");
-        out.println("%%EndProlog");
-    }
-
-    private void printPath(Shape s) {
-        PathIterator it = s.getPathIterator(transform);
-        double[] pt = new double[6];
-        boolean isClosed = true;
-        double prevX=0, prevY=0;
-        out.println("newpath");
-        while(!it.isDone()) {
-            isClosed = false;
-            switch(it.currentSegment(pt)) {
-                case PathIterator.SEG_CLOSE:
-                    out.println("closepath");
-                    isClosed = true;
-                    break;
-                case PathIterator.SEG_MOVETO:
-                    out.println(""+pt[0]+" "+pt[1]+" moveto");
-                    break;
-                case PathIterator.SEG_LINETO:
-                    out.println(""+pt[0]+" "+pt[1]+" lineto");
-                    break;
-                case PathIterator.SEG_QUADTO:
-                    // convert to cubic
-                    pt[4] = pt[2]; pt[5] = pt[3];
-                    pt[0] = (prevX+2.0*pt[0])/3.0;
-                    pt[1] = (prevY+2.0*pt[1])/3.0;
-                    pt[2] = (pt[4]-prevX)/3.0 + pt[0];
-                    pt[3] = (pt[5]-prevY)/3.0 + pt[1];
-                case PathIterator.SEG_CUBICTO:
-                    out.println(""+pt[0]+" "+pt[1]+" "+pt[2]+" "+pt[3]+" "+pt[4]+" "+pt[5]+" curveto");
-                    break;
-            }
-            prevX = pt[0]; prevY = pt[1];
-            it.next();
-        }
-    }
+    /** The name of Times-Roman re-encoded to ISO Latin-1, defined in the
+     * prolog, which the text is written with.
+     */
+    static final String FONT = "Times-Roman-Latin1";
     
-    private void printColor() {
-        if(isColorDirty) {
-            out.println(""+
-                    ((double)color.getRed()/255.0)+" "+
-                    ((double)color.getGreen()/255.0)+" "+
-                    ((double)color.getBlue()/255.0)+" setrgbcolor");
-            isColorDirty = false;
-        }
-    }
+    /** The code of the bullet in the encoding of <code>FONT</code>, which
+     * is ISO Latin-1 with the bullet added where it has no character.
+     */
+    static final char BULLET = '\200';
     
-    private void printStroke() {
-        if(isStrokeDirty) {
-            if(stroke instanceof BasicStroke) {
-                BasicStroke bs = (BasicStroke)stroke;
-                out.println(""+bs.getLineWidth()+" setlinewidth");
-                switch(bs.getEndCap()) {
-                    case BasicStroke.CAP_BUTT:
-                        out.print("0");
-                        break;
-                    case BasicStroke.CAP_ROUND:
-                        out.print("1");
-                        break;
-                    case BasicStroke.CAP_SQUARE:
-                        out.print("2");
-                        break;
-                }
-                out.println(" setlinecap");
-                float[] dash = bs.getDashArray();
-                if(dash != null) {
-                    out.print("[");
-                    for(int i=0; i<dash.length; i++) {
-                        if(i != 0) 
-                            out.print(" ");
-                        out.print(dash[i]);
-                    }
-                    out.println("] "+bs.getDashPhase()+" setdash");
-                } else {
-                    out.println("[] 0 setdash");
-                }
-            }
-            isStrokeDirty = false;
-        }
-    }
+    private final PrintWriter out;
+    private final Rectangle2D boundingBox;
+    private boolean isFinished = false;
+    private final boolean isPage;
+    private final boolean compact;
+    private final boolean compress;
+    private final boolean tight;
     
-    private void printFont() {
-        if(isFontDirty) {
-            out.println("/Times-Roman findfont");
-            out.println((font.getSize() * 4 / 3) + " scalefont setfont");
-            isFontDirty = false;
-        }
+    /** Creates a new instance of EpsGraphics2D.
+     * @param out where the EPS will be written to.
+     * @param boundingBox the bounding box of the EPS.
+     */
+    public EpsGraphics2D(PrintWriter out, Rectangle2D boundingBox) {
+        this(out, boundingBox, new EpsOptions());
     }
     
-    public void draw(Shape s) {
-        printColor();
-        printStroke();
-        printPath(s);
-        out.println("stroke");
+    /** Creates a new instance of EpsGraphics2D.
+     * @param out where the EPS will be written to.
+     * @param boundingBox the bounding box of the EPS.
+     * @param options the options of the EPS output.
+     */
+    public EpsGraphics2D(PrintWriter out, Rectangle2D boundingBox, EpsOptions options) {
+        this(new PsWriter(out, options.getPrecision()), out, boundingBox, options, false);
     }
 
-    public void fill(Shape s) {
-        printColor();
-        printPath(s);
-        out.println("fill");
+    /** Creates a new instance of EpsGraphics2D. The stream is not closed.
+     * @param out where the EPS will be written to.
+     * @param boundingBox the bounding box of the EPS.
+     * @param options the options of the EPS output.
+     */
+    public EpsGraphics2D(OutputStream out, Rectangle2D boundingBox, EpsOptions options) {
+        this(new PsWriter(out, options.getPrecision()), null, boundingBox, options, false);
     }
 
-    public void drawString(String str, int x, int y) {
-        drawString(str, (float)x, (float)y);
+    /** Creates a new instance of EpsGraphics2D. The channel is not closed.
+     * @param out where the EPS will be written to.
+     * @param boundingBox the bounding box of the EPS.
+     * @param options the options of the EPS output.
+     */
+    public EpsGraphics2D(WritableByteChannel out, Rectangle2D boundingBox, EpsOptions options) {
+        this(new PsWriter(out, options.getPrecision()), null, boundingBox, options, false);
     }
 
-    public void drawString(String s, float x, float y) {
-        printFont();
-        float[] pt = new float[]{x, y};
-        transform.transform(pt, 0, pt, 0, 1);
-        out.println(""+pt[0]+" "+pt[1]+" moveto");
-        out.println("("+escape(s)+") show");
+    private EpsGraphics2D(PsWriter ps, PrintWriter out, Rectangle2D boundingBox, EpsOptions options, boolean isPage) {
+        super(ps, options.isCompact() ? COMPACT_OPS : OPS, boundingBox);
+        this.out = out;
+        this.isPage = isPage;
+        this.compact = options.isCompact();
+        this.compress = options.isCompress() && !isPage;
+        this.tight = options.isTightBounds() && !isPage;
+        this.boundingBox = boundingBox;
+        setSimplification(options.getSimplification());
     }
     
-    private static String escape(String s) {
-        StringBuilder sb = new StringBuilder(s.length()+8);
-        for(int i=0; i<s.length(); i++) {
-            char ch = s.charAt(i);
-            switch(ch) {
-            case '(':
-                sb.append("\\(");
-                break;
-            case ')':
-                sb.append("\\)");
-                break;
-            case '\\':
-                sb.append("\\\\");
-                break;
-            default:
-                if(ch > 128) {
-                    sb.append('\\');
-                    for(int j=3; j>0; j--) {
-                        sb.append((char)((ch >> 8*j) & 0x7 + '0'));
-                    }
-                } else {
-                    sb.append(ch);
-                }
-            }
-        }
-        return sb.toString();
-    }
-
-    public void setStroke(Stroke s) {
-        isStrokeDirty = isStrokeDirty || (this.stroke != s);
-        this.stroke = s;
+    /** Creates an EpsGraphics2D that writes one page of a PsBundle, i.e.
+     * the page setup, the drawing and the end of the page. The stream is
+     * not closed.
+     * @param out where the page will be written to.
+     * @param boundingBox the bounding box of the diagram. It is moved to the
+     * origin of the page.
+     * @param options the options of the bundle.
+     */
+    static EpsGraphics2D createPage(OutputStream out, Rectangle2D boundingBox, EpsOptions options) {
+        return new EpsGraphics2D(new PsWriter(out, options.getPrecision()), null, boundingBox, options, true);
     }
 
-    public void translate(int x, int y) {
-        transform.translate(x, y);
+    /** Writes the header, prolog and setup, or the page setup of a page. */
+    void writeHeader() {
+        if(isPage)
+            initPage(boundingBox);
+        else
+            initEps(boundingBox);
     }
 
-    public void translate(double tx, double ty) {
-        transform.translate(tx, ty);
+    private void initEps(Rectangle2D bounds) {
+        ps.println("%!PS-Adobe-3.0 EPSF-3.0");
+        if(tight) {
+            ps.println("%%BoundingBox: (atend)");
+            ps.println("%%HiResBoundingBox: (atend)");
+        } else {
+            printBoundingBox(bounds);
+        }
+        ps.println("%%Creator: DitaaEps");
+        if(compress)
+            ps.println("%%LanguageLevel: 3");
+        ps.println("%%EndComments");
+        printProlog(ps, compact, fontNames.size());
+        if(compact || !fontNames.isEmpty()) {
+            ps.println("%%BeginSetup");
+            if(compact)
+                ps.op("DitaaEpsDict begin");
+            printFonts();
+            ps.println("%%EndSetup");
+        }
+        if(compress) {
+            ps.op("currentfile /ASCII85Decode filter /FlateDecode filter cvx exec");
+            ps.beginFilter(Deflater.DEFAULT_COMPRESSION);
+        }
     }
 
-    public void rotate(double theta) {
-        transform.rotate(theta);
+    /** Writes the bounding box comments, the integer one enclosing the
+     * other.
+     */
+    private void printBoundingBox(Rectangle2D bounds) {
+        ps.print("%%BoundingBox: ")
+                .number((int)Math.floor(bounds.getMinX()))
+                .number((int)Math.floor(bounds.getMinY()))
+                .number((int)Math.ceil(bounds.getMaxX()))
+                .number((int)Math.ceil(bounds.getMaxY())).endLine();
+        ps.print("%%HiResBoundingBox: ")
+                .number(bounds.getMinX())
+                .number(bounds.getMinY())
+                .number(bounds.getMaxX())
+                .number(bounds.getMaxY()).endLine();
+    }
+
+    /** Writes the prolog, which defines <code>FONT</code> and in compact
+     * mode the short names of the operators in <code>DitaaEpsDict</code>.
+     * @param fonts the number of fonts that will be defined in the
+     * dictionary, which cannot grow in PostScript Level 1.
+     */
+    static void printProlog(PsWriter ps, boolean compact, int fonts) {
+        ps.println("%%BeginProlog");
+        // the standard encoding has none of the letters of Latin-1 above 127
+        ps.op("/Times-Roman findfont dup length dict begin");
+        ps.op("{1 index /FID ne {def} {pop pop} ifelse} forall");
+        ps.print("/Encoding ISOLatin1Encoding 256 array copy dup ").number(BULLET).op("/bullet put def");
+        ps.print("currentdict end /").print(FONT).op(" exch definefont pop");
+        if(compact) {
+            // room for the operators, sf and the fonts defined in the setup
+            ps.print("/DitaaEpsDict ").number(OPS.length + 1 + fonts).op("dict def");
+            ps.op("DitaaEpsDict begin");
+            for(int i=0; i<OPS.length; i++) {
+                if(OPS[i].indexOf(' ') < 0)
+                    ps.print('/').print(COMPACT_OPS[i]).print(" /").print(OPS[i]).op(" load def");
+                else
+                    ps.print('/').print(COMPACT_OPS[i]).print(" {").print(OPS[i]).op("} bind def");
+            }
+            ps.print("/sf {/").print(FONT).op(" findfont exch scalefont setfont} bind def");
+            ps.op("end");
+        }
+        ps.println("%%EndProlog");
     }
 
-    public void rotate(double theta, double x, double y) {
-        transform.rotate(theta, x, y);
+    /** Writes the page setup of a page of a bundle. The page is drawn
+     * inside a save, so it leaves nothing behind, and its fonts are defined
+     * in a dictionary of its own.
+     */
+    private void initPage(Rectangle2D bounds) {
+        ps.println("%%BeginPageSetup");
+        ps.print("/setpagedevice where {pop << /PageSize [")
+                .number(bounds.getWidth())
+                .number(bounds.getHeight()).op("] >> setpagedevice} if");
+        ps.op("save");
+        if(!fontNames.isEmpty()) {
+            ps.number(fontNames.size()).op("dict begin");
+            printFonts();
+        }
+        ps.number(-bounds.getMinX()).number(-bounds.getMinY()).op(ops[OP_TRANSLATE]);
+        ps.println("%%EndPageSetup");
     }
 
-    public void scale(double sx, double sy) {
-        transform.scale(sx, sy);
+    private void printFonts() {
+        for(Map.Entry<Integer, String> entry : fontNames.entrySet()) {
+            ps.print('/').print(entry.getValue()).print(" /").print(FONT).print(" findfont ")
+                    .number(entry.getKey().intValue()).op("scalefont def");
+        }
     }
 
-    public void shear(double shx, double shy) {
-        transform.shear(shx, shy);
-    }
 
-    public void transform(AffineTransform Tx) {
-        transform.concatenate(Tx);
+    void printRgb(Color color) {
+        ps.number(color.getRed()/255.0)
+                .number(color.getGreen()/255.0)
+                .number(color.getBlue()/255.0).op(ops[OP_SETRGBCOLOR]);
     }
 
-    public void setTransform(AffineTransform Tx) {
-        transform.setTransform(Tx);
+    void printFont(int size, String name) {
+        if(name != null) {
+            ps.print(name).print(' ').op(ops[OP_SETFONT]);
+        } else if(compact) {
+            ps.number(size).op("sf");
+        } else {
+            ps.print('/').print(FONT).op(" findfont");
+            ps.number(size).op("scalefont setfont");
+        }
     }
 
-    public AffineTransform getTransform() {
-        return transform;
+    /** Fills a shape with a color, and then strokes it with the current
+     * color and stroke. The path is written only once, and the fill color
+     * is set inside a gsave, so the stroke color stays in effect.
+     */
+    public void fillAndDraw(Shape s, Color fillColor) {
+        start();
+        if(!mark(s, true))
+            return;
+        printColor();
+        printStroke();
+        printPath(s);
+        if(fillColor.getRGB() == getColor().getRGB()) {
+            ps.op(ops[OP_FILL_PRESERVE]);
+        } else {
+            ps.number(fillColor.getRed()/255.0)
+                    .number(fillColor.getGreen()/255.0)
+                    .number(fillColor.getBlue()/255.0).op(ops[OP_FILL_COLORED]);
+        }
+        ps.op(ops[OP_STROKE]);
     }
 
-    public Stroke getStroke() {
-        return stroke;
+    void printTranslate(double tx, double ty) {
+        ps.number(tx).number(ty).op(ops[OP_TRANSLATE]);
     }
 
-    public Color getColor() {
-        return color;
+    void printString(String s, float x, float y) {
+        printColor();
+        printFont();
+        pt[0] = x; pt[1] = y;
+        transform.transform(pt, 0, pt, 0, 1);
+        ps.print('(').print(escape(s, BULLET)).print(") ");
+        ps.number(pt[0]).number(pt[1]).op(ops[OP_SHOW]);
     }
 
-    public void setColor(Color c) {
-        isColorDirty = isColorDirty || (this.color != c);
-        this.color = c;
+    /** Writes several strings with the current font and color, as one run
+     * of texts instead of one <code>moveto show</code> each.
+     */
+    void printStrings(String[] strings, float[] xs, float[] ys, int count) {
+        printColor();
+        printFont();
+        for(int begin=0; begin<count; begin+=MAX_RUN) {
+            int end = Math.min(count, begin + MAX_RUN);
+            // the run is shown from its end, so it is written backwards
+            // to keep the painting order
+            ps.print('[');
+            for(int i=end-1; i>=begin; i--) {
+                pt[0] = xs[i]; pt[1] = ys[i];
+                transform.transform(pt, 0, pt, 0, 1);
+                ps.print('(').print(escape(strings[i], BULLET)).print(") ");
+                ps.number(pt[0]).number(pt[1]);
+            }
+            ps.print("] ").op(ops[OP_SHOW_RUN]);
+        }
     }
 
-    public Font getFont() {
-        return font;
+    /** Ends the EPS and flushes it to the sink, without closing it.
+     * Nothing may be drawn afterwards.
+     * @throws IOException if writing to the sink has failed.
+     */
+    public void finish() throws IOException {
+        if(!isFinished) {
+            start();
+            if(isPage) {
+                if(!fontNames.isEmpty())
+                    ps.op("end");
+                ps.op("restore showpage");
+                ps.println("%%PageTrailer");
+            } else {
+                if(compress)
+                    ps.endFilter();
+                ps.op("showpage");
+                ps.println("%%Trailer");
+                if(tight) {
+                    Rectangle2D painted = getPaintedBounds();
+                    printBoundingBox(painted != null ? painted : boundingBox);
+                }
+                if(compact)
+                    ps.op("end");
+                ps.println("%%EOF");
+            }
+            ps.flush();
+            isFinished = true;
+        }
+        if(ps.checkError())
+            throw ps.getError();
     }
 
-    public void setFont(Font font) {
-        this.font = font;
-    }
-   
+    /** Ends the EPS and flushes it. The PrintWriter given to the constructor,
+     * if any, is closed. Errors are ignored; use <code>finish</code> to get
+     * them.
+     */
     public void dispose() {
-        out.println("showpage");
-        out.println("%%Trailer");
-        out.println("%%EOF");
-        out.flush();
-        out.close();
-    }
-    
-    
-    // -------------------------------------------------------------------------
-    // NOT IMPLEMENTED METHODS
-    // -------------------------------------------------------------------------
-    
-    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public Object getRenderingHint(RenderingHints.Key hintKey) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void setRenderingHints(Map/*<?, ?>*/ hints) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void addRenderingHints(Map/*<?, ?>*/ hints) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public RenderingHints getRenderingHints() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawGlyphVector(GlyphVector g, float x, float y) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public Paint getPaint() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public Composite getComposite() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void clip(Shape s) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public FontRenderContext getFontRenderContext() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public Graphics create() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-    public void setBackground(Color color) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public Color getBackground() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public GraphicsConfiguration getDeviceConfiguration() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void setComposite(Composite comp) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void setPaint(Paint paint) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void setPaintMode() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void setXORMode(Color c1) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public FontMetrics getFontMetrics(Font f) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public Rectangle getClipBounds() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void clipRect(int x, int y, int width, int height) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void setClip(int x, int y, int width, int height) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public Shape getClip() {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void setClip(Shape clip) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawLine(int x1, int y1, int x2, int y2) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void fillRect(int x, int y, int width, int height) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void clearRect(int x, int y, int width, int height) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawOval(int x, int y, int width, int height) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void fillOval(int x, int y, int width, int height) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
-        throw new RuntimeException("Not implemented"); // FIXME
-    }
-
-    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
-        throw new RuntimeException("Not implemented"); // FIXME
+        try {
+            finish();
+        } catch (IOException e) {
+            // kept by the PsWriter
+        }
+        if(out != null)
+            out.close();
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * EpsOptions.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import org.apache.commons.cli.CommandLine;
+
+/** Options for the EPS output, in addition to ditaa's
+ * <code>RenderingOptions</code>.
+ *
+ * @author Mikael Brannstrom
+ */
+public class EpsOptions {
+
+    private int precision = 3;
+    private boolean compact = false;
+    private int pathThreads = 1;
+    private boolean pdf = false;
+    private boolean compress = false;
+    private int splitThreads = 0;
+    private double simplification = 0;
+    private boolean tightBounds = false;
+
+    /** Creates EPS options with the default values.
+     */
+    public EpsOptions() {
+    }
+
+    /** Creates a copy of EPS options.
+     */
+    public EpsOptions(EpsOptions options) {
+        this.precision = options.precision;
+        this.compact = options.compact;
+        this.pathThreads = options.pathThreads;
+        this.pdf = options.pdf;
+        this.compress = options.compress;
+        this.splitThreads = options.splitThreads;
+        this.simplification = options.simplification;
+        this.tightBounds = options.tightBounds;
+    }
+
+    /** Creates EPS options from a command line.
+     * @throws IllegalArgumentException if an option has an invalid value.
+     */
+    public EpsOptions(CommandLine cmdLine) {
+        if(cmdLine.hasOption("precision"))
+            setPrecision(Integer.parseInt(cmdLine.getOptionValue("precision")));
+        setCompact(cmdLine.hasOption("compact"));
+        if(cmdLine.hasOption("path-threads"))
+            setPathThreads(Integer.parseInt(cmdLine.getOptionValue("path-threads")));
+        setPdf(cmdLine.hasOption("pdf"));
+        setCompress(cmdLine.hasOption("compress"));
+        if(cmdLine.hasOption("split"))
+            setSplitThreads(Integer.parseInt(cmdLine.getOptionValue("split")));
+        if(cmdLine.hasOption("simplify"))
+            setSimplification(Double.parseDouble(cmdLine.getOptionValue("simplify")));
+        setTightBounds(cmdLine.hasOption("tight"));
+    }
+
+    /** Returns the number of decimals of the coordinates and colors.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /** Sets the number of decimals of the coordinates and colors, 0 to 6.
+     * The default is 3.
+     */
+    public void setPrecision(int precision) {
+        if(precision < 0 || precision > 6)
+            throw new IllegalArgumentException("precision must be 0 to 6: "+precision);
+        this.precision = precision;
+    }
+
+    /** Returns true if the operators are written with short names defined
+     * in the prolog.
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /** Sets if the operators are written with short names defined in the
+     * prolog, which makes the EPS smaller and faster to parse.
+     * The default is false.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /** Returns the number of threads the paths of the shapes are prepared
+     * on.
+     */
+    public int getPathThreads() {
+        return pathThreads;
+    }
+
+    /** Sets the number of threads the paths of the shapes are prepared on
+     * before they are written. The output is the same for any number of
+     * threads. The default is 1, i.e. no extra threads.
+     */
+    public void setPathThreads(int pathThreads) {
+        if(pathThreads < 1)
+            throw new IllegalArgumentException("path threads must be positive: "+pathThreads);
+        this.pathThreads = pathThreads;
+    }
+
+    /** Returns true if PDF is written instead of EPS.
+     */
+    public boolean isPdf() {
+        return pdf;
+    }
+
+    /** Sets if PDF is written instead of EPS. The compact option does not
+     * apply to PDF. The default is false.
+     */
+    public void setPdf(boolean pdf) {
+        this.pdf = pdf;
+    }
+
+    /** Returns true if the drawing in the EPS is compressed.
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /** Sets if the drawing in the EPS is compressed with Flate and encoded
+     * with ASCII85, to be decoded by the PostScript interpreter as it is
+     * read. Such an EPS needs PostScript Level 3. It does not apply to PDF,
+     * which is always compressed, or to the pages of a bundle.
+     * The default is false.
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /** Returns the number of threads the regions of a split diagram are
+     * built on, or 0 if diagrams are not split.
+     */
+    public int getSplitThreads() {
+        return splitThreads;
+    }
+
+    /** Sets if large diagrams are cut into the regions separated by blank
+     * rows or columns, each built as a diagram of its own, and on how many
+     * threads. The output is the same for any number of threads, but the
+     * shapes are drawn region by region. It does not apply to the pages of
+     * a bundle. The default is 0, i.e. diagrams are not split.
+     */
+    public void setSplitThreads(int splitThreads) {
+        if(splitThreads < 0)
+            throw new IllegalArgumentException("split threads must not be negative: "+splitThreads);
+        this.splitThreads = splitThreads;
+    }
+
+    /** Returns the tolerance of the path simplification, in points, or 0
+     * if paths are written as they are.
+     */
+    public double getSimplification() {
+        return simplification;
+    }
+
+    /** Sets the tolerance of the path simplification, in points. Paths are
+     * then written with their coordinates snapped to multiples of the
+     * tolerance, runs of lines that are collinear within the tolerance
+     * merged into one, and lines of no length dropped. The default is 0,
+     * i.e. paths are written as they are.
+     */
+    public void setSimplification(double simplification) {
+        if(!(simplification >= 0) || Double.isInfinite(simplification))
+            throw new IllegalArgumentException("simplification must not be negative: "+simplification);
+        this.simplification = simplification;
+    }
+
+    /** Returns true if the bounding box is that of what is painted, rather
+     * than the whole diagram.
+     */
+    public boolean isTightBounds() {
+        return tightBounds;
+    }
+
+    /** Sets if the bounding box is that of what is painted, strokes, shadows
+     * and texts included, rather than the whole diagram. The EPS then gives
+     * its bounding box as <code>(atend)</code> and writes it in the
+     * trailer; the PDF gets it as its media box. It does not apply to the
+     * pages of a bundle. The default is false.
+     */
+    public void setTightBounds(boolean tightBounds) {
+        this.tightBounds = tightBounds;
+    }
+
+    /** Returns the extension of the output files, <code>pdf</code> or
+     * <code>eps</code>.
+     */
+    public String getFileExtension() {
+        return pdf ? "pdf" : "eps";
+    }
+
+    /** Returns all options that affect the output, one per line. Used in
+     * the keys of the <code>DiagramCache</code>, so every such option must
+     * be included.
+     */
+    public String toString() {
+        return "precision="+precision+"\n"+
+                "compact="+compact+"\n"+
+                "pdf="+pdf+"\n"+
+                "compress="+compress+"\n"+
+                "split="+(splitThreads > 0)+"\n"+
+                "simplify="+simplification+"\n"+
+                "tight="+tightBounds+"\n";
+    }
+}
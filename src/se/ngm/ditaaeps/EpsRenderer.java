@@ -31,35 +31,49 @@ import org.apache.commons.cli.PosixParser;
 import org.apache.commons.cli.ParseException;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
 import org.stathissideris.ascii2image.core.FileUtils;
 import org.stathissideris.ascii2image.graphics.*;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
-import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 import org.stathissideris.ascii2image.core.ConversionOptions;
 import org.stathissideris.ascii2image.core.RenderingOptions;
 import org.stathissideris.ascii2image.core.Shape3DOrderingComparator;
+import org.stathissideris.ascii2image.text.GridPattern;
+import org.stathissideris.ascii2image.text.GridPatternGroup;
 import org.stathissideris.ascii2image.text.StringUtils;
 import org.stathissideris.ascii2image.text.TextGrid;
 import se.ngm.ditaaeps.EpsGraphics2D;
@@ -73,6 +87,43 @@ public class EpsRenderer {
 
   private static final boolean DEBUG = false;
 
+  /** The version of the EPS output, which is part of the keys of the
+   * <code>DiagramCache</code>. Increase it whenever the output for a
+   * diagram changes.
+   */
+  public static final int OUTPUT_VERSION = 10;
+
+  /** The stroke set before anything is drawn. */
+  private static final Stroke INITIAL_STROKE = new BasicStroke(1, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_ROUND);
+
+  /** The normal and dashed strokes of the shapes, by the cell size they
+   * are made for. Strokes cannot be changed, so they are shared by all
+   * threads.
+   */
+  private static final Map<Long, Stroke[]> STROKES = new ConcurrentHashMap<Long, Stroke[]>();
+
+  /** The buffer the plain render paths are made into, one per thread. */
+  private static final ThreadLocal<PathBuffer> PATH_BUFFERS = new ThreadLocal<PathBuffer>() {
+    protected PathBuffer initialValue() {
+      return new PathBuffer();
+    }
+  };
+
+  /** The buffer a diagram is rendered into by <code>renderText</code>, one
+   * per thread. A buffer that has grown larger than
+   * <code>MAX_POOLED_OUTPUT</code> is dropped after use.
+   */
+  private static final ThreadLocal<ByteArrayOutputStream> OUTPUT_BUFFERS = new ThreadLocal<ByteArrayOutputStream>() {
+    protected ByteArrayOutputStream initialValue() {
+      return new ByteArrayOutputStream(64 * 1024);
+    }
+  };
+
+  private static final int MAX_POOLED_OUTPUT = 1024 * 1024;
+
+  /** The threads the render paths are prepared on, shared by all diagrams. */
+  private static final WorkerPool PATH_WORKERS = new WorkerPool("ditaa-eps-paths");
+
   private static void printUsage(){
     System.out.println("Usage:");
     System.out.println("\tjava -jar text2image.jar\n");
@@ -85,15 +136,40 @@ public class EpsRenderer {
     System.out.println("\t[{-s,--scale} scale]");
     System.out.println("\t[{-r,--round-corners}]");
     System.out.println("\t[{-E,--no-separation}]");
-    System.out.println("\n\t<inputfile> [outfile]");
+    System.out.println("\t[--precision decimals]");
+    System.out.println("\t[{-C,--compact}]");
+    System.out.println("\t[--compress]");
+    System.out.println("\t[--pdf]");
+    System.out.println("\t[--path-threads threads]");
+    System.out.println("\t[--split threads]");
+    System.out.println("\t[--simplify tolerance]");
+    System.out.println("\t[--tight]");
+    System.out.println("\t[--cache directory [--cache-size mb] [--memory-cache mb]]");
+    System.out.println("\t[--stats] [--stats-json file]");
+    System.out.println("\n\t<inputfile|-> [outfile|-]");
+    System.out.println("\nBatch mode:");
+    System.out.println("\t[{-j,--threads} threads]");
+    System.out.println("\t{-B,--batch} <inputfile|directory|glob>...");
+    System.out.println("\t{-m,--manifest} <manifestfile>");
+    System.out.println("\t--bundle <outfile.ps> <inputfile|directory|glob>...");
+    System.out.println("\nHTML mode:");
+    System.out.println("\t[{-j,--threads} threads]");
+    System.out.println("\t{-h,--html} <inputfile.html> [outfile.html]");
+    System.out.println("\nWatch mode:");
+    System.out.println("\t--watch [inputfile|directory]...");
+    System.out.println("\nServer mode:");
+    System.out.println("\t[{-j,--threads} threads]");
+    System.out.println("\t[--queue requests]");
+    System.out.println("\t[--max-cells cells]");
+    System.out.println("\t[--timeout seconds]");
+    System.out.println("\t{-P,--server} <port>");
   }
 
   private static String[] markupModeAllowedValues = {"use", "ignore", "render"};
 
-  public static void main(String[] args){
-    System.setProperty("java.awt.headless", "true");
-    long startTime = System.currentTimeMillis();
-
+  /** Creates the command line options understood by the renderer.
+   */
+  static Options createCommandLineOptions() {
     Options cmdOptions = new Options();
     cmdOptions.addOption(
         OptionBuilder.withLongOpt("help")
@@ -142,6 +218,213 @@ public class EpsRenderer {
         .create('b')
         );
 
+    cmdOptions.addOption("B", "batch", false, "Batch mode: every argument is an input file, a directory (all its .txt files) or a glob such as dir/*.txt. Each input is rendered to the EPS file chosen as for a single input.");
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("manifest")
+        .withDescription("Batch mode: read the inputs from a manifest file, one input per line optionally followed by its output file. Blank lines and lines starting with # are ignored.")
+        .hasArg()
+        .withArgName("MANIFEST")
+        .create('m')
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("compress")
+        .withDescription("Compresses the drawing in the EPS with the Flate and ASCII85 filters. The EPS needs PostScript Level 3.")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("pdf")
+        .withDescription("Writes PDF instead of EPS, with compressed content and the built-in Times-Roman font.")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("bundle")
+        .withDescription("Batch mode: render all inputs as the pages of one multi-page PostScript file, and write the page of each input to FILE.idx.")
+        .hasArg()
+        .withArgName("FILE")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("threads")
+        .withDescription("The number of worker threads used in batch mode. Defaults to the number of available processors.")
+        .hasArg()
+        .withArgName("THREADS")
+        .create('j')
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("stats")
+        .withDescription("Prints the time spent in each phase of rendering and the number of shapes, path segments, operators and bytes written.")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("stats-json")
+        .withDescription("Appends the stats of each diagram to a file, as one JSON object per line.")
+        .hasArg()
+        .withArgName("FILE")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("watch")
+        .withDescription("Watch mode: renders the out of date diagrams among the arguments, which are files or directories (all their .txt files), and then re-renders each diagram whose content changes. Defaults to the current directory.")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("server")
+        .withDescription("Server mode: listens on PORT of the loopback interface and renders the ASCII art POSTed to it. Long rendering options can be given as query parameters, e.g. /?no-shadows&scale=2.")
+        .hasArg()
+        .withArgName("PORT")
+        .create('P')
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("queue")
+        .withDescription("Server mode: the number of requests that may wait for a worker thread before new requests are rejected.")
+        .hasArg()
+        .withArgName("QUEUE")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("max-cells")
+        .withDescription("Server mode: the maximum size (columns times rows) of a diagram.")
+        .hasArg()
+        .withArgName("CELLS")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("timeout")
+        .withDescription("Server mode: the number of seconds a request may wait for its diagram to be rendered.")
+        .hasArg()
+        .withArgName("SECONDS")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("cache")
+        .withDescription("Caches rendered diagrams in DIRECTORY, keyed on their text and the options. Unchanged diagrams are then copied from the cache instead of being rendered.")
+        .hasArg()
+        .withArgName("DIRECTORY")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("cache-size")
+        .withDescription("The maximum size in megabytes of the cache directory. The least recently used diagrams are evicted. Default is 256.")
+        .hasArg()
+        .withArgName("MB")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("memory-cache")
+        .withDescription("The size in megabytes of an in-memory cache in front of the cache directory. Default is 0.")
+        .hasArg()
+        .withArgName("MB")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("precision")
+        .withDescription("The number of decimals of coordinates and colors in the EPS, 0 to 6. Default is 3.")
+        .hasArg()
+        .withArgName("DECIMALS")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("path-threads")
+        .withDescription("The number of threads the paths of the shapes in a diagram are prepared on. The output is the same for any number. Defaults to 1.")
+        .hasArg()
+        .withArgName("THREADS")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("split")
+        .withDescription("Large-input mode: cuts the diagram into the regions separated by blank rows or columns, and builds them as diagrams of their own on the given number of threads.")
+        .hasArg()
+        .withArgName("THREADS")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("tight")
+        .withDescription("Gives the EPS or PDF the bounding box of what is painted instead of that of the whole diagram. The EPS has it in the trailer, with (atend) in the header.")
+        .create()
+        );
+
+    cmdOptions.addOption(
+        OptionBuilder.withLongOpt("simplify")
+        .withDescription("Simplifies the paths: snaps the coordinates to multiples of the given tolerance in points, merges collinear lines and drops lines of no length.")
+        .hasArg()
+        .withArgName("TOLERANCE")
+        .create()
+        );
+
+    cmdOptions.addOption("C", "compact", false, "Writes the PostScript operators with short names defined in the prolog, which makes the EPS smaller.");
+
+    return cmdOptions;
+  }
+
+  /** Returns the value of an integer option, or exits if it is not a
+   * number of at least <code>min</code>.
+   */
+  private static int getIntOption(CommandLine cmdLine, String name, int defaultValue, int min) {
+    if(!cmdLine.hasOption(name)) return defaultValue;
+    int value;
+    try {
+      value = Integer.parseInt(cmdLine.getOptionValue(name));
+    } catch(NumberFormatException e) {
+      value = min - 1;
+    }
+    if(value < min) {
+      System.err.println("Error: Invalid value for --"+name+": "+cmdLine.getOptionValue(name));
+      System.exit(2);
+    }
+    return value;
+  }
+
+  /** Opens the file given with --stats-json for appending, or returns
+   * <code>null</code> if there is none. Exits if it cannot be opened.
+   */
+  private static PrintWriter openStatsJson(CommandLine cmdLine) {
+    if(!cmdLine.hasOption("stats-json")) return null;
+    String filename = cmdLine.getOptionValue("stats-json");
+    try {
+      return new PrintWriter(new FileWriter(filename, true));
+    } catch (IOException e) {
+      System.err.println("Error: Cannot write to file "+filename);
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static void printStats(String filename, RenderStats stats, boolean print, PrintWriter json) {
+    if(print) {
+      System.out.println("Stats for "+filename+":");
+      System.out.println(stats);
+    }
+    if(json != null) {
+      json.println(stats.toJson(filename));
+      json.close();
+    }
+  }
+
+  public static void main(String[] args){
+    System.setProperty("java.awt.headless", "true");
+    long startTime = System.currentTimeMillis();
+
+    Options cmdOptions = createCommandLineOptions();
+
     CommandLine cmdLine = null;
 
     try {
@@ -173,71 +456,654 @@ public class EpsRenderer {
       System.exit(2);
     }
 
+    EpsOptions epsOptions = null;
+
+    try {
+      epsOptions = new EpsOptions(cmdLine);
+    } catch(IllegalArgumentException e) {
+      System.err.println("Error: "+e.getMessage());
+      printUsage();
+      System.exit(2);
+    }
+
     args = cmdLine.getArgs();
 
+    int threads = getIntOption(cmdLine, "threads", Runtime.getRuntime().availableProcessors(), 1);
+
+    DiagramCache cache = null;
+    if(cmdLine.hasOption("cache")) {
+      cache = new DiagramCache(new File(cmdLine.getOptionValue("cache")),
+          getIntOption(cmdLine, "cache-size", 256, 1) * 1024L * 1024L);
+      cache.setMaxMemorySize(getIntOption(cmdLine, "memory-cache", 0, 0) * 1024L * 1024L);
+    }
+
+    if(cmdLine.hasOption("server")) {
+      RenderServer server = new RenderServer(cmdLine.getOptions(), threads);
+      server.setQueueSize(getIntOption(cmdLine, "queue", server.getQueueSize(), 0));
+      server.setMaxCells(getIntOption(cmdLine, "max-cells", server.getMaxCells(), 1));
+      server.setTimeout(getIntOption(cmdLine, "timeout", server.getTimeout(), 1));
+      server.setCache(cache);
+      int port = getIntOption(cmdLine, "server", 0, 0);
+      try {
+        server.start(port);
+      } catch (IOException e) {
+        System.err.println("Error: Cannot listen on port "+port+": "+e.getMessage());
+        System.exit(1);
+      }
+      System.out.println("Listening on http://localhost:"+server.getPort()+"/");
+      return;
+    }
+
+    boolean printStats = cmdLine.hasOption("stats");
+    PrintWriter statsJson = openStatsJson(cmdLine);
+
+    if(cmdLine.hasOption("html")) {
+      if(args.length == 0) {
+        System.err.println("Error: Please provide the input file filename");
+        printUsage();
+        System.exit(2);
+      }
+      String filename = args[0];
+      String toFilename;
+      if(args.length == 1){
+        toFilename = FileUtils.makeTargetPathname(filename, "html", "_processed", options.processingOptions.overwriteFiles());
+      } else {
+        toFilename = args[1];
+      }
+      HtmlRenderer html = new HtmlRenderer(options, epsOptions, threads);
+      html.setCache(cache);
+      System.out.println("Converting HTML file "+filename+" to file: "+toFilename);
+      int failures;
+      try {
+        failures = html.run(filename, toFilename, System.out);
+      } catch (FileNotFoundException e) {
+        System.err.println("Error: File "+filename+" does not exist");
+        System.exit(1);
+        return;
+      } catch (IOException e) {
+        System.err.println("Error: "+e.getMessage());
+        System.exit(1);
+        return;
+      }
+      if(failures < 0) {
+        System.err.println("HTML document does not contain any <pre> tags with their class attribute set to \"textdiagram\". Nothing to do.");
+        System.exit(0);
+      }
+      if(cache != null) System.out.println(cache);
+
+      long endTime = System.currentTimeMillis();
+      double totalTime  = (endTime - startTime) / 1000.0;
+      System.out.println("Done in "+totalTime+" sec");
+      System.exit(failures == 0 ? 0 : 1);
+    }
+
+    if(cmdLine.hasOption("watch")) {
+      DiagramWatcher watcher = new DiagramWatcher(options, epsOptions);
+      watcher.setCache(cache);
+      if(args.length == 0)
+        watcher.addInput(".");
+      for(int i=0; i<args.length; i++) {
+        if(!new File(args[i]).exists()) {
+          System.err.println("Error: File "+args[i]+" does not exist");
+          System.exit(2);
+        }
+        watcher.addInput(args[i]);
+      }
+      try {
+        watcher.run(System.out);
+      } catch (IOException e) {
+        System.err.println("Error: Cannot watch for changes: "+e.getMessage());
+        System.exit(1);
+      }
+      return;
+    }
+
+    if(cmdLine.hasOption("batch") || cmdLine.hasOption("manifest") || cmdLine.hasOption("bundle")) {
+      BatchRenderer batch = new BatchRenderer(options, epsOptions, threads);
+      batch.setCache(cache);
+      batch.setStats(printStats, statsJson);
+      for(int i=0; i<args.length; i++) {
+        batch.addInput(args[i]);
+      }
+      if(cmdLine.hasOption("manifest")) {
+        String manifest = cmdLine.getOptionValue("manifest");
+        try {
+          batch.addManifest(manifest);
+        } catch (IOException e) {
+          System.err.println("Error: Cannot read manifest "+manifest);
+          System.exit(1);
+        }
+      }
+      if(batch.isEmpty()) {
+        System.err.println("Error: No input files found");
+        System.exit(2);
+      }
+
+      PsBundle bundle = null;
+      OutputStream bundleOut = null;
+      String bundleFilename = cmdLine.getOptionValue("bundle");
+      if(bundleFilename != null) {
+        if(epsOptions.isPdf()) {
+          System.err.println("Error: --bundle writes PostScript and cannot be combined with --pdf");
+          System.exit(2);
+        }
+        try {
+          bundleOut = new BufferedOutputStream(new FileOutputStream(bundleFilename));
+        } catch (IOException e) {
+          System.err.println("Error: Cannot write to file "+bundleFilename);
+          System.exit(1);
+        }
+        bundle = new PsBundle(bundleOut, epsOptions);
+        batch.setBundle(bundle);
+      }
+
+      int failures = batch.run(System.out);
+      if(bundle != null) {
+        String indexFilename = bundleFilename+".idx";
+        try {
+          try {
+            bundle.finish();
+          } finally {
+            bundleOut.close();
+          }
+          bundle.writeIndex(new File(indexFilename));
+        } catch (IOException e) {
+          System.err.println("Error: Cannot write bundle "+bundleFilename+": "+e.getMessage());
+          System.exit(1);
+        }
+        System.out.println(bundle.getPageCount()+" pages written to "+bundleFilename+", index in "+indexFilename);
+      }
+      if(cache != null) System.out.println(cache);
+      if(statsJson != null) statsJson.close();
+
+      long endTime = System.currentTimeMillis();
+      double totalTime  = (endTime - startTime) / 1000.0;
+      System.out.println("Done in "+totalTime+" sec");
+      System.exit(failures == 0 ? 0 : 1);
+    }
+
     if(args.length == 0) {
       System.err.println("Error: Please provide the input file filename");
       printUsage();
       System.exit(2);
     }
 
-    TextGrid grid = new TextGrid();
-    String filename = args[0];
-    System.out.println("Reading file: "+filename);
+    final String filename = args[0];
+    String toFilename;
+    if(args.length > 1){
+      toFilename = args[1];
+    } else if(filename.equals("-")){
+      toFilename = "-";
+    } else {
+      toFilename = FileUtils.makeTargetPathname(filename, epsOptions.getFileExtension(), options.processingOptions.overwriteFiles());
+    }
+
+    // When the output goes to stdout everything else that is printed, by
+    // ditaa too, goes to stderr.
+    PrintStream stdout = System.out;
+    boolean toStdout = toFilename.equals("-");
+    if(toStdout) System.setOut(System.err);
+
+    String text = null;
+    if(filename.equals("-")) {
+      try {
+        text = readText(System.in, options.processingOptions.getCharacterEncoding());
+      } catch (IOException e) {
+        System.err.println("Error: Cannot read the standard input: "+e.getMessage());
+        System.exit(1);
+      }
+      if(text.length() == 0) {
+        System.err.println("Error: The standard input is empty");
+        System.exit(1);
+      }
+    }
+
+    // the grid printed for debugging is the one that is rendered
+    TextGrid debugGrid = null;
+    if(options.processingOptions.printDebugOutput()){
+      TextGrid grid = new TextGrid();
+      try {
+        if(text != null ? grid.initialiseWithText(text, options.processingOptions)
+            : grid.loadFrom(filename, options.processingOptions)){
+          System.out.println("Using grid:");
+          grid.printDebug();
+          debugGrid = grid;
+        }
+      } catch (IOException e) {
+        // reported when the file is rendered
+      }
+    }
+
+    RenderListener listener = null;
+    if(printStats || statsJson != null) {
+      final boolean print = printStats;
+      final PrintWriter json = statsJson;
+      listener = new RenderListener() {
+        public void rendered(String name, RenderStats stats) {
+          printStats(filename, stats, print, json);
+        }
+      };
+    }
+    DiagramRenderer renderer = new DiagramRenderer(options, epsOptions, cache, listener);
+
+    System.out.println("Rendering "+(text != null ? "standard input" : filename)+" to "
+        +(toStdout ? "standard output" : "file: "+toFilename));
     try {
-      if(!grid.loadFrom(filename, options.processingOptions)){
-        System.err.println("Cannot open file "+filename+" for reading");
+      if(debugGrid == null && text == null && !toStdout) {
+        renderer.renderFile(filename, toFilename);
+      } else {
+        if(debugGrid == null && text == null)
+          text = FileUtils.readFile(new File(filename), options.processingOptions.getCharacterEncoding());
+        OutputStream out = toStdout ? (OutputStream) stdout : new FileOutputStream(toFilename);
+        try {
+          if(debugGrid != null)
+            renderer.render(debugGrid, out);
+          else
+            renderer.render(text, out);
+        } finally {
+          if(toStdout) out.flush(); else out.close();
+        }
+        if(toStdout && stdout.checkError())
+          throw new IOException("Cannot write to the standard output");
       }
-    } catch (FileNotFoundException e1) {
-      System.err.println("Error: File "+filename+" does not exist");
+    } catch (FileNotFoundException e) {
+      if(filename.equals("-") || new File(filename).exists())
+        System.err.println("Error: "+e.getMessage());
+      else
+        System.err.println("Error: File "+filename+" does not exist");
       System.exit(1);
-    } catch (IOException e1) {
-      System.err.println("Error: Cannot open file "+filename+" for reading");
+    } catch (IOException e) {
+      System.err.println("Error: "+e.getMessage());
       System.exit(1);
     }
+    if(cache != null) System.out.println(cache);
 
-    if(options.processingOptions.printDebugOutput()){
-      System.out.println("Using grid:");
-      grid.printDebug();
+    long endTime = System.currentTimeMillis();
+    double totalTime  = (endTime - startTime) / 1000.0;
+    System.out.println("Done in "+totalTime+" sec");
+  }
+
+  /** Reads all of a stream as text, for diagrams piped to standard input.
+   * @param encoding the encoding of the text, or <code>null</code> for the
+   * default encoding.
+   */
+  private static String readText(InputStream in, String encoding) throws IOException {
+    Reader reader = encoding == null ? new InputStreamReader(in) : new InputStreamReader(in, encoding);
+    StringBuilder text = new StringBuilder();
+    char[] buffer = new char[8192];
+    int n;
+    while((n = reader.read(buffer)) >= 0) {
+      text.append(buffer, 0, n);
     }
+    return text.toString();
+  }
 
-    boolean overwrite = false;
-    if(options.processingOptions.overwriteFiles()) overwrite = true;
-    String toFilename;
-    if(args.length == 1){
-      toFilename = FileUtils.makeTargetPathname(filename, "eps", overwrite);
-    } else {
-      toFilename = args[1];
+
+  private static boolean preparedForConcurrentUse = false;
+
+  /** Prepares ditaa for rendering diagrams on several threads at once.
+   * <p>
+   * The grid patterns in <code>GridPatternGroup</code> are shared by all
+   * diagrams and compile their regular expressions lazily, which is not
+   * thread safe. This compiles them all up front. It must be called before
+   * the threads that render diagrams are started.
+   */
+  public static synchronized void prepareForConcurrentUse() {
+    if(preparedForConcurrentUse) return;
+    TextGrid grid = new TextGrid(3, 3);
+    Field[] fields = GridPatternGroup.class.getFields();
+    for(int i=0; i<fields.length; i++) {
+      if(!Modifier.isStatic(fields[i].getModifiers()) || fields[i].getType() != GridPatternGroup.class)
+        continue;
+      try {
+        GridPatternGroup group = (GridPatternGroup) fields[i].get(null);
+        Iterator patternIt = group.iterator();
+        while(patternIt.hasNext()){
+          ((GridPattern) patternIt.next()).isMatchedBy(grid);
+        }
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
     }
+    preparedForConcurrentUse = true;
+  }
 
-    Diagram diagram = new Diagram(grid, options);
-    System.out.println("Rendering to file: "+toFilename);
+  /** Renders the diagram in one text file to an EPS file.
+   * @param filename the text file to read the diagram from.
+   * @param toFilename the EPS file to write.
+   * @param options the conversion options.
+   * @param epsOptions the options of the EPS output.
+   * @throws IOException if the text file cannot be read or the EPS file
+   * cannot be written.
+   */
+  public static void renderFile(String filename, String toFilename, ConversionOptions options, EpsOptions epsOptions) throws IOException {
+    renderFile(filename, toFilename, options, epsOptions, null, null);
+  }
+
+  /** Renders the diagram in one text file to an EPS file, or copies the EPS
+   * from the cache if the diagram has been rendered before.
+   * @param filename the text file to read the diagram from.
+   * @param toFilename the EPS file to write.
+   * @param options the conversion options.
+   * @param epsOptions the options of the EPS output.
+   * @param cache the cache, or <code>null</code> to always render.
+   * @throws IOException if the text file cannot be read or the EPS file
+   * cannot be written.
+   */
+  public static void renderFile(String filename, String toFilename, ConversionOptions options, EpsOptions epsOptions, DiagramCache cache) throws IOException {
+    renderFile(filename, toFilename, options, epsOptions, cache, null);
+  }
 
+  /** Renders the diagram in one text file to an EPS file, or copies the EPS
+   * from the cache if the diagram has been rendered before.
+   * @param filename the text file to read the diagram from.
+   * @param toFilename the EPS file to write.
+   * @param options the conversion options.
+   * @param epsOptions the options of the EPS output.
+   * @param cache the cache, or <code>null</code> to always render.
+   * @param stats where the timings and counts are added, or <code>null</code>.
+   * @throws IOException if the text file cannot be read or the EPS file
+   * cannot be written.
+   */
+  public static void renderFile(String filename, String toFilename, ConversionOptions options, EpsOptions epsOptions, DiagramCache cache, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+
+    if(cache == null) {
+      TextGrid grid = new TextGrid();
+      if(!grid.loadFrom(filename, options.processingOptions)){
+        throw new IOException("Cannot open file "+filename+" for reading");
+      }
+      if(stats != null) stats.lap(RenderStats.LOAD);
 
+      FileOutputStream out = new FileOutputStream(toFilename);
+      try {
+        renderGrid(grid, out, options, epsOptions, stats);
+      } finally {
+        out.close();
+      }
+      return;
+    }
+
+    String text = FileUtils.readFile(new File(filename), options.processingOptions.getCharacterEncoding());
+    byte[] eps = renderText(text, options, epsOptions, cache, stats);
+
+    FileOutputStream out = new FileOutputStream(toFilename);
     try {
-      PrintWriter out = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(toFilename))));
-      EpsRenderer.renderToEps(diagram, out, options.renderingOptions);
+      out.write(eps);
+    } finally {
       out.close();
-    } catch (IOException e) {
-      //e.printStackTrace();
-      System.err.println("Error: Cannot write to file "+filename);
-      System.exit(1);
     }
+  }
 
-    //BitmapRenderer.renderToPNG(diagram, toFilename, options.renderingOptions);
+  /** Renders a diagram given as text to EPS.
+   * @param text the ASCII art of the diagram.
+   * @param options the conversion options.
+   * @param epsOptions the options of the EPS output.
+   * @return the EPS.
+   * @throws IOException if the text cannot be decoded with the encoding
+   * given in the options.
+   */
+  public static byte[] renderText(String text, ConversionOptions options, EpsOptions epsOptions) throws IOException {
+    return renderText(text, options, epsOptions, null);
+  }
 
-    long endTime = System.currentTimeMillis();
-    double totalTime  = (endTime - startTime) / 1000.0;
-    System.out.println("Done in "+totalTime+" sec");
+  /** Renders a diagram given as text to EPS.
+   * @param text the ASCII art of the diagram.
+   * @param options the conversion options.
+   * @param epsOptions the options of the EPS output.
+   * @param stats where the timings and counts are added, or <code>null</code>.
+   * @return the EPS.
+   * @throws IOException if the text cannot be decoded with the encoding
+   * given in the options.
+   */
+  public static byte[] renderText(String text, ConversionOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    ByteArrayOutputStream bytes = OUTPUT_BUFFERS.get();
+    try {
+      renderText(text, bytes, options, epsOptions, stats);
+      return bytes.toByteArray();
+    } finally {
+      if(bytes.size() > MAX_POOLED_OUTPUT)
+        OUTPUT_BUFFERS.remove();
+      bytes.reset();
+    }
+  }
+
+  /** Renders a diagram given as text to EPS, or copies the EPS from the
+   * cache if the diagram has been rendered before.
+   * @param cache the cache, or <code>null</code> to always render.
+   * @param stats where the timings and counts are added, or <code>null</code>.
+   * @return the EPS.
+   * @throws IOException if the text cannot be decoded with the encoding
+   * given in the options.
+   */
+  static byte[] renderText(String text, ConversionOptions options, EpsOptions epsOptions, DiagramCache cache, RenderStats stats) throws IOException {
+    if(cache == null)
+      return renderText(text, options, epsOptions, stats);
+    if(stats != null) stats.begin();
+    String key = cache.getKey(text, options, epsOptions);
+    byte[] eps = cache.get(key);
+    if(eps == null) {
+      eps = renderText(text, options, epsOptions, stats);
+      cache.put(key, eps);
+    } else if(stats != null) {
+      stats.lap(RenderStats.LOAD);
+      stats.setCached(true);
+      stats.setBytes(eps.length);
+    }
+    return eps;
   }
 
+  /** Renders a diagram given as text to PDF if the options say so,
+   * otherwise to EPS. The stream is not closed.
+   * @param text the ASCII art of the diagram.
+   * @param out where the EPS or PDF is written to.
+   * @param options the conversion options.
+   * @param epsOptions the options of the EPS output.
+   * @param stats where the timings and counts are added, or <code>null</code>.
+   * @throws IOException if the text cannot be decoded with the encoding
+   * given in the options, or writing to the stream fails.
+   */
+  public static void renderText(String text, OutputStream out, ConversionOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+    TextGrid grid = new TextGrid();
+    if(!grid.initialiseWithText(text, options.processingOptions)){
+      throw new IOException("Cannot read the diagram");
+    }
+    if(stats != null) stats.lap(RenderStats.LOAD);
+    renderGrid(grid, out, options, epsOptions, stats);
+  }
 
   public static void renderToEps(Diagram diagram, PrintWriter out, RenderingOptions options) {
+    renderToEps(diagram, out, options, new EpsOptions());
+  }
+
+  /** Renders a diagram to EPS. The writer is closed.
+   */
+  public static void renderToEps(Diagram diagram, PrintWriter out, RenderingOptions options, EpsOptions epsOptions) {
+    EpsGraphics2D g2 = new EpsGraphics2D(out, getBoundingBox(diagram), epsOptions);
+    render(diagram, g2, options, epsOptions.getPathThreads(), null);
+    g2.dispose();
+  }
+
+  /** Renders a diagram to EPS, streaming the ASCII bytes straight into the
+   * stream. The stream is flushed but not closed.
+   * @throws IOException if writing to the stream fails.
+   */
+  public static void renderToEps(Diagram diagram, OutputStream out, RenderingOptions options, EpsOptions epsOptions) throws IOException {
+    renderToEps(diagram, out, options, epsOptions, null);
+  }
+
+  /** Renders a diagram to EPS, streaming the ASCII bytes straight into the
+   * stream. The stream is flushed but not closed.
+   * @param stats where the timings of the render passes and the counts are
+   * added, or <code>null</code>.
+   * @throws IOException if writing to the stream fails.
+   */
+  public static void renderToEps(Diagram diagram, OutputStream out, RenderingOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+    EpsGraphics2D g2 = new EpsGraphics2D(out, getBoundingBox(diagram), epsOptions);
+    render(diagram, g2, options, epsOptions.getPathThreads(), stats);
+    g2.finish();
+    if(stats != null) addOutputStats(g2, stats);
+  }
+
+  /** Renders a diagram to EPS, writing the bytes to the channel through a
+   * direct buffer. The channel is not closed.
+   * @throws IOException if writing to the channel fails.
+   */
+  public static void renderToEps(Diagram diagram, WritableByteChannel out, RenderingOptions options, EpsOptions epsOptions) throws IOException {
+    renderToEps(diagram, out, options, epsOptions, null);
+  }
+
+  /** Renders a diagram to EPS, writing the bytes to the channel through a
+   * direct buffer. The channel is not closed.
+   * @param stats where the timings of the render passes and the counts are
+   * added, or <code>null</code>.
+   * @throws IOException if writing to the channel fails.
+   */
+  public static void renderToEps(Diagram diagram, WritableByteChannel out, RenderingOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+    EpsGraphics2D g2 = new EpsGraphics2D(out, getBoundingBox(diagram), epsOptions);
+    render(diagram, g2, options, epsOptions.getPathThreads(), stats);
+    g2.finish();
+    if(stats != null) addOutputStats(g2, stats);
+  }
+
+  /** Renders a diagram to a one-page PDF. The stream is not closed.
+   * @throws IOException if writing to the stream fails.
+   */
+  public static void renderToPdf(Diagram diagram, OutputStream out, RenderingOptions options, EpsOptions epsOptions) throws IOException {
+    renderToPdf(diagram, out, options, epsOptions, null);
+  }
+
+  /** Renders a diagram to a one-page PDF. The stream is not closed.
+   * @param stats where the timings of the render passes and the counts are
+   * added, or <code>null</code>.
+   * @throws IOException if writing to the stream fails.
+   */
+  public static void renderToPdf(Diagram diagram, OutputStream out, RenderingOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+    PdfGraphics2D g2 = new PdfGraphics2D(out, getBoundingBox(diagram), epsOptions);
+    render(diagram, g2, options, epsOptions.getPathThreads(), stats);
+    g2.finish();
+    if(stats != null) addOutputStats(g2, stats);
+  }
+
+  /** Renders a diagram to PDF if the options say so, otherwise to EPS.
+   * The stream is not closed.
+   * @throws IOException if writing to the stream fails.
+   */
+  public static void renderTo(Diagram diagram, OutputStream out, RenderingOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(epsOptions.isPdf())
+      renderToPdf(diagram, out, options, epsOptions, stats);
+    else
+      renderToEps(diagram, out, options, epsOptions, stats);
+  }
+
+  /** Renders a diagram split into regions to PDF if the options say so,
+   * otherwise to EPS. The stream is not closed.
+   * @throws IOException if writing to the stream fails.
+   */
+  static void renderTo(SplitDiagram diagram, OutputStream out, RenderingOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+    Rectangle2D box = getBoundingBox(diagram.getWidth(), diagram.getHeight());
+    VectorGraphics2D g2;
+    if(epsOptions.isPdf())
+      g2 = new PdfGraphics2D(out, box, epsOptions);
+    else
+      g2 = new EpsGraphics2D(out, box, epsOptions);
+    render(diagram, g2, options, epsOptions.getPathThreads(), stats);
+    g2.finish();
+    if(stats != null) addOutputStats(g2, stats);
+  }
+
+  /** Builds the diagram of a grid, split into regions if the options say
+   * so, and renders it to PDF or EPS. The stream is not closed.
+   * @param stats where the timings and counts are added, or <code>null</code>.
+   * @throws IOException if writing to the stream fails.
+   */
+  static void renderGrid(TextGrid grid, OutputStream out, ConversionOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+    if(epsOptions.getSplitThreads() > 0) {
+      SplitDiagram diagram = new SplitDiagram(grid, options, epsOptions.getSplitThreads());
+      if(stats != null) stats.lap(RenderStats.DIAGRAM);
+      renderTo(diagram, out, options.renderingOptions, epsOptions, stats);
+    } else {
+      Diagram diagram = new Diagram(grid, options);
+      if(stats != null) stats.lap(RenderStats.DIAGRAM);
+      renderTo(diagram, out, options.renderingOptions, epsOptions, stats);
+    }
+  }
+
+  /** Renders a diagram to a page of a <code>PsBundle</code>.
+   * @param g2 the page, from <code>EpsGraphics2D.createPage</code>.
+   * @throws IOException if writing the page fails.
+   */
+  static void renderPage(Diagram diagram, EpsGraphics2D g2, RenderingOptions options, EpsOptions epsOptions, RenderStats stats) throws IOException {
+    if(stats != null) stats.begin();
+    render(diagram, g2, options, epsOptions.getPathThreads(), stats);
+    g2.finish();
+    if(stats != null) addOutputStats(g2, stats);
+  }
+
+  private static void addOutputStats(VectorGraphics2D g2, RenderStats stats) {
+    stats.lap(RenderStats.FLUSH);
+    stats.setSegments(stats.getSegments() + g2.getSegmentCount());
+    stats.setRemovedSegments(stats.getRemovedSegments() + g2.getRemovedSegmentCount());
+    stats.setOperators(stats.getOperators() + g2.getOperatorCount());
+    stats.setSkippedOperators(stats.getSkippedOperators() + g2.getSkippedOperatorCount());
+    stats.setBytes(stats.getBytes() + g2.getByteCount());
+  }
+
+  static Rectangle2D getBoundingBox(Diagram diagram) {
+    return getBoundingBox(diagram.getWidth(), diagram.getHeight());
+  }
+
+  private static Rectangle2D getBoundingBox(int width, int height) {
+    return new Rectangle2D.Double(0, -height, width, height);
+  }
+
+  private static void render(Diagram diagram, VectorGraphics2D g2, RenderingOptions options, int pathThreads, RenderStats stats) {
     //RenderedImage renderedImage = image;
-    EpsGraphics2D g2 = new EpsGraphics2D(out, new Rectangle2D.Double(0, -diagram.getHeight(), diagram.getWidth(), diagram.getHeight()));
 
     g2.scale(1, -1); // g2 origo is top-left, eps is bottom-left
 
+    declareFonts(diagram, g2);
+    beginRender(g2, options);
+    renderShapes(diagram, g2, options, pathThreads, stats);
+  }
+
+  /** Renders the regions of a split diagram, each translated to its place.
+   */
+  private static void render(SplitDiagram diagram, VectorGraphics2D g2, RenderingOptions options, int pathThreads, RenderStats stats) {
+    g2.scale(1, -1); // g2 origo is top-left, eps is bottom-left
+
+    // all fonts are declared before the first region is drawn
+    Iterator regionIt = diagram.getRegions().iterator();
+    while(regionIt.hasNext()){
+      declareFonts(((SplitDiagram.Region) regionIt.next()).diagram, g2);
+    }
+    beginRender(g2, options);
+
+    regionIt = diagram.getRegions().iterator();
+    while(regionIt.hasNext()){
+      SplitDiagram.Region region = (SplitDiagram.Region) regionIt.next();
+      AffineTransform transform = new AffineTransform(g2.getTransform());
+      g2.translate(region.x, region.y);
+      renderShapes(region.diagram, g2, options, pathThreads, stats);
+      g2.setTransform(transform);
+    }
+  }
+
+  private static void declareFonts(Diagram diagram, VectorGraphics2D g2) {
+    Iterator fontIt = diagram.getTextObjects().iterator();
+    while(fontIt.hasNext()){
+      g2.declareFont(((DiagramText) fontIt.next()).getFont());
+    }
+  }
+
+  private static void beginRender(VectorGraphics2D g2, RenderingOptions options) {
+
     Object antialiasSetting = antialiasSetting = RenderingHints.VALUE_ANTIALIAS_OFF;
     if(options.performAntialias())
       antialiasSetting = RenderingHints.VALUE_ANTIALIAS_ON;
@@ -250,37 +1116,88 @@ public class EpsRenderer {
     /*for(int y = 0; y < diagram.getHeight(); y ++)
       g2.drawLine(0, y, diagram.getWidth(), y);*/
 
-    g2.setStroke(new BasicStroke(1, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_ROUND));
+    g2.setStroke(INITIAL_STROKE);
+  }
+
+  /** Returns the normal and the dashed stroke of the shapes of a diagram,
+   * which depend only on its cell size.
+   */
+  private static Stroke[] getStrokes(Diagram diagram) {
+    Long key = Long.valueOf(((long) diagram.getCellWidth() << 32) | diagram.getCellHeight());
+    Stroke[] strokes = STROKES.get(key);
+    if(strokes != null)
+      return strokes;
+
+    float dashInterval = Math.min(diagram.getCellWidth(), diagram.getCellHeight()) / 2;
+    //Stroke normalStroke = g2.getStroke();
+
+    float strokeWeight = diagram.getMinimumOfCellDimension() / 10;
+
+    Stroke normalStroke =
+      new BasicStroke(
+          strokeWeight,
+          //10,
+          BasicStroke.CAP_ROUND,
+          BasicStroke.JOIN_ROUND
+          );
+
+    Stroke dashStroke =
+      new BasicStroke(
+          strokeWeight,
+          BasicStroke.CAP_BUTT,
+          BasicStroke.JOIN_ROUND,
+          0,
+          new float[] {dashInterval},
+          0
+          );
+    strokes = new Stroke[] {normalStroke, dashStroke};
+    STROKES.put(key, strokes);
+    return strokes;
+  }
 
+  private static void renderShapes(Diagram diagram, VectorGraphics2D g2, RenderingOptions options, int pathThreads, RenderStats stats) {
     ArrayList shapes = diagram.getAllDiagramShapes();
+    if(stats != null) stats.setShapes(stats.getShapes() + shapes.size());
 
     if(DEBUG) System.out.println("Rendering "+shapes.size()+" shapes (groups flattened)");
 
+    // the render path of each shape, computed once and used by all passes,
+    // except the plain ones that are made into the buffer when drawn
+    Map renderPaths = new IdentityHashMap();
+    PathBuffer buffer = PATH_BUFFERS.get();
+    if(pathThreads > 1 && shapes.size() > 1)
+      preparePaths(diagram, shapes, g2, renderPaths, pathThreads);
+
     Iterator shapesIt;
     if(options.dropShadows()){
       //render shadows
+      //all shadows are drawn with the shapes' own paths, displaced by a single translate
+      float offset = diagram.getMinimumOfCellDimension() / 3.333f;
+      Color shadowColor = new Color(150,150,150);
+      boolean isTranslated = false;
       shapesIt = shapes.iterator();
       while(shapesIt.hasNext()){
         DiagramShape shape = (DiagramShape) shapesIt.next();
 
-        if(shape.getPoints().isEmpty()) continue;
+        if(shape.getPoints().isEmpty() || !shape.dropsShadow()) continue;
 
         //GeneralPath path = shape.makeIntoPath();
-        GeneralPath path;
-        path = shape.makeIntoRenderPath(diagram);
-
-        float offset = diagram.getMinimumOfCellDimension() / 3.333f;
-
-        if(path != null && shape.dropsShadow()){
-          GeneralPath shadow = new GeneralPath(path);
-          AffineTransform translate = new AffineTransform();
-          translate.setToTranslation(offset, offset);
-          shadow.transform(translate);
-          g2.setColor(new Color(150,150,150));
-          g2.fill(shadow);
+        Shape path;
+        path = getRenderPath(shape, diagram, renderPaths, buffer);
+
+        if(path != null){
+          if(!isTranslated) {
+            g2.gsave();
+            g2.translateOutput(offset, offset);
+            g2.setColor(shadowColor);
+            isTranslated = true;
+          }
+          g2.fill(path);
 
         }
       }
+      if(isTranslated)
+        g2.grestore();
 
 
       //blur shadows
@@ -313,30 +1230,13 @@ public class EpsRenderer {
     }
 
 
-    //fill and stroke
+    if(stats != null) stats.lap(RenderStats.SHADOWS);
 
-    float dashInterval = Math.min(diagram.getCellWidth(), diagram.getCellHeight()) / 2;
-    //Stroke normalStroke = g2.getStroke();
-
-    float strokeWeight = diagram.getMinimumOfCellDimension() / 10;
-
-    Stroke normalStroke =
-      new BasicStroke(
-          strokeWeight,
-          //10,
-          BasicStroke.CAP_ROUND,
-          BasicStroke.JOIN_ROUND
-          );
+    //fill and stroke
 
-    Stroke dashStroke =
-      new BasicStroke(
-          strokeWeight,
-          BasicStroke.CAP_BUTT,
-          BasicStroke.JOIN_ROUND,
-          0,
-          new float[] {dashInterval},
-          0
-          );
+    Stroke[] strokes = getStrokes(diagram);
+    Stroke normalStroke = strokes[0];
+    Stroke dashStroke = strokes[1];
 
 
     //find storage shapes
@@ -366,26 +1266,24 @@ public class EpsRenderer {
     while(shapesIt.hasNext()){
       DiagramShape shape = (DiagramShape) shapesIt.next();
 
-      GeneralPath path;
-      path = shape.makeIntoRenderPath(diagram);
-
-      if(!shape.isStrokeDashed()) {
-        if(shape.getFillColor() != null)
-          g2.setColor(shape.getFillColor());
-        else
-          g2.setColor(Color.white);
-        g2.fill(path);
-      }
+      Shape path;
+      path = getRenderPath(shape, diagram, renderPaths, buffer);
 
       if(shape.isStrokeDashed())
         g2.setStroke(dashStroke);
       else
         g2.setStroke(normalStroke);
       g2.setColor(shape.getStrokeColor());
-      g2.draw(path);
+
+      if(!shape.isStrokeDashed())
+        g2.fillAndDraw(path, shape.getFillColor() != null ? shape.getFillColor() : Color.white);
+      else
+        g2.draw(path);
     }
 
 
+    if(stats != null) stats.lap(RenderStats.STORAGE);
+
     //render the rest of the shapes
     ArrayList pointMarkers = new ArrayList();
     shapesIt = shapes.iterator();
@@ -404,26 +1302,29 @@ public class EpsRenderer {
 
       int size = shape.getPoints().size();
 
-      GeneralPath path;
-      path = shape.makeIntoRenderPath(diagram);
+      Shape path;
+      path = getRenderPath(shape, diagram, renderPaths, buffer);
 
-      if(path != null && shape.isClosed() && !shape.isStrokeDashed()){
-        if(shape.getFillColor() != null)
-          g2.setColor(shape.getFillColor());
-        else
-          g2.setColor(Color.white);
-        g2.fill(path);
-      }
+      boolean isFilled = path != null && shape.isClosed() && !shape.isStrokeDashed();
+      Color fillColor = shape.getFillColor() != null ? shape.getFillColor() : Color.white;
       if(shape.getType() != DiagramShape.TYPE_ARROWHEAD){
         g2.setColor(shape.getStrokeColor());
         if(shape.isStrokeDashed())
           g2.setStroke(dashStroke);
         else
           g2.setStroke(normalStroke);
-        g2.draw(path);
+        if(isFilled)
+          g2.fillAndDraw(path, fillColor);
+        else
+          g2.draw(path);
+      } else if(isFilled) {
+        g2.setColor(fillColor);
+        g2.fill(path);
       }
     }
 
+    if(stats != null) stats.lap(RenderStats.SHAPES);
+
     //render point markers
 
     g2.setStroke(normalStroke);
@@ -432,25 +1333,49 @@ public class EpsRenderer {
       DiagramShape shape = (DiagramShape) shapesIt.next();
       //if(shape.getType() != DiagramShape.TYPE_POINT_MARKER) continue;
 
-      GeneralPath path;
-      path = shape.makeIntoRenderPath(diagram);
+      Shape path;
+      path = getRenderPath(shape, diagram, renderPaths, buffer);
 
-      g2.setColor(Color.white);
-      g2.fill(path);
       g2.setColor(shape.getStrokeColor());
-      g2.draw(path);
+      g2.fillAndDraw(path, Color.white);
     }
 
 
+    if(stats != null) stats.lap(RenderStats.MARKERS);
+
     //handle text
     //g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 
+    //texts with the same font and color are drawn as one run, in their
+    //original order within the run
+    Map textRuns = new LinkedHashMap();
     Iterator textIt = diagram.getTextObjects().iterator();
     while(textIt.hasNext()){
       DiagramText text = (DiagramText) textIt.next();
-      g2.setColor(text.getColor());
-      g2.setFont(text.getFont());
-      g2.drawString(text.getText(), text.getXPos(), text.getYPos());
+      String key = text.getFont().getSize()+" "+text.getColor().getRGB();
+      List run = (List) textRuns.get(key);
+      if(run == null) {
+        run = new ArrayList();
+        textRuns.put(key, run);
+      }
+      run.add(text);
+    }
+    Iterator runIt = textRuns.values().iterator();
+    while(runIt.hasNext()){
+      List run = (List) runIt.next();
+      String[] strings = new String[run.size()];
+      float[] xs = new float[run.size()];
+      float[] ys = new float[run.size()];
+      for(int i=0; i<run.size(); i++) {
+        DiagramText text = (DiagramText) run.get(i);
+        strings[i] = text.getText();
+        xs[i] = text.getXPos();
+        ys[i] = text.getYPos();
+      }
+      DiagramText first = (DiagramText) run.get(0);
+      g2.setColor(first.getColor());
+      g2.setFont(first.getFont());
+      g2.drawStrings(strings, xs, ys, run.size());
     }
 
 
@@ -469,9 +1394,75 @@ public class EpsRenderer {
       for(int y = 0; y < diagram.getHeight(); y += diagram.getCellHeight())
         g2.drawLine(0, y, diagram.getWidth(), y);
     }
+    if(stats != null) stats.lap(RenderStats.TEXT);
 
+  }
 
-    g2.dispose();
+  /** Makes the render paths of the shapes, and formats them as PostScript,
+   * on several threads. The shapes are split into chunks, each prepared
+   * on one thread with its own PathWriter. Shapes that fail are left to
+   * fail the same way when they are drawn.
+   */
+  private static void preparePaths(final Diagram diagram, ArrayList shapes, VectorGraphics2D g2, Map renderPaths, int threads) {
+    prepareForConcurrentUse();
+    final DiagramShape[] all = (DiagramShape[]) shapes.toArray(new DiagramShape[shapes.size()]);
+    final GeneralPath[] paths = new GeneralPath[all.length];
+    final VectorGraphics2D.PreparedPath[] prepared = new VectorGraphics2D.PreparedPath[all.length];
+    final boolean[] isDone = new boolean[all.length];
+
+    int chunks = Math.min(all.length, threads * 4);
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for(int c=0; c<chunks; c++) {
+      final int begin = all.length * c / chunks;
+      final int end = all.length * (c+1) / chunks;
+      final VectorGraphics2D.PathWriter writer = g2.createPathWriter();
+      tasks.add(new Callable<Object>() {
+        public Object call() {
+          for(int i=begin; i<end; i++) {
+            if(all[i].getPoints().isEmpty()) continue;
+            try {
+              paths[i] = all[i].makeIntoRenderPath(diagram);
+              if(paths[i] != null)
+                prepared[i] = writer.write(paths[i]);
+              isDone[i] = true;
+            } catch (RuntimeException e) {
+              // left to fail when the shape is drawn
+            }
+          }
+          return null;
+        }
+      });
+    }
+
+    try {
+      PATH_WORKERS.get(threads).invokeAll(tasks);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    // invokeAll has waited for the tasks, so their results are visible
+    for(int i=0; i<all.length; i++) {
+      if(!isDone[i]) continue;
+      renderPaths.put(all[i], paths[i]);
+      if(prepared[i] != null)
+        g2.putPreparedPath(paths[i], prepared[i]);
+    }
+  }
+
+  /** Returns the render path of a shape. A plain shape is made into the
+   * buffer, which is returned and only valid until the next call; other
+   * shapes are made only the first time they are asked for.
+   * @param renderPaths the paths made so far, by shape identity.
+   */
+  private static Shape getRenderPath(DiagramShape shape, Diagram diagram, Map renderPaths, PathBuffer buffer) {
+    if(renderPaths.containsKey(shape))
+      return (Shape) renderPaths.get(shape);
+    if(PathBuffer.isPlain(shape))
+      return buffer.set(shape, diagram) ? buffer : null;
+    GeneralPath path = shape.makeIntoRenderPath(diagram);
+    renderPaths.put(shape, path);
+    return path;
   }
 
   public static boolean isColorDark(Color color){
@@ -0,0 +1,130 @@
+/*
+ * GraphicsState.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.util.Arrays;
+
+/** The part of the graphics state that VectorGraphics2D writes:
+ * color, line width, cap, join, dash pattern and font size, and the
+ * translation of the output.
+ * <p>
+ * Each setter compares by value and returns true only if the value differs
+ * from the one in effect, i.e. if the operator has to be written. Values
+ * start unknown, so the first setter of each always returns true.
+ *
+ * @author Mikael Brannstrom
+ */
+class GraphicsState {
+
+    private static final int UNKNOWN = -1;
+
+    private int rgb;
+    private boolean isColorKnown = false;
+    private float lineWidth = Float.NaN;
+    private int lineCap = UNKNOWN;
+    private int lineJoin = UNKNOWN;
+    private float[] dash;
+    private float dashPhase;
+    private boolean isDashKnown = false;
+    private int fontSize = UNKNOWN;
+    private double translateX = 0;
+    private double translateY = 0;
+
+    GraphicsState() {
+    }
+
+    /** Creates a copy of a state, for <code>gsave</code>. */
+    GraphicsState(GraphicsState state) {
+        this.rgb = state.rgb;
+        this.isColorKnown = state.isColorKnown;
+        this.lineWidth = state.lineWidth;
+        this.lineCap = state.lineCap;
+        this.lineJoin = state.lineJoin;
+        this.dash = state.dash;
+        this.dashPhase = state.dashPhase;
+        this.isDashKnown = state.isDashKnown;
+        this.fontSize = state.fontSize;
+        this.translateX = state.translateX;
+        this.translateY = state.translateY;
+    }
+
+    /** Sets the color, given as 0xRRGGBB. */
+    boolean setColor(int rgb) {
+        rgb &= 0xffffff;
+        if(isColorKnown && this.rgb == rgb)
+            return false;
+        this.rgb = rgb;
+        isColorKnown = true;
+        return true;
+    }
+
+    boolean setLineWidth(float lineWidth) {
+        // NaN is never equal, so an unknown width is always set
+        if(this.lineWidth == lineWidth)
+            return false;
+        this.lineWidth = lineWidth;
+        return true;
+    }
+
+    /** Sets the line cap, as the number given to <code>setlinecap</code>. */
+    boolean setLineCap(int lineCap) {
+        if(this.lineCap == lineCap)
+            return false;
+        this.lineCap = lineCap;
+        return true;
+    }
+
+    /** Sets the line join, as the number given to <code>setlinejoin</code>. */
+    boolean setLineJoin(int lineJoin) {
+        if(this.lineJoin == lineJoin)
+            return false;
+        this.lineJoin = lineJoin;
+        return true;
+    }
+
+    /** Sets the dash pattern, <code>null</code> for solid lines.
+     * The array is not copied and must not be changed afterwards.
+     */
+    boolean setDash(float[] dash, float dashPhase) {
+        if(dash == null)
+            dashPhase = 0;
+        if(isDashKnown && Arrays.equals(this.dash, dash) && this.dashPhase == dashPhase)
+            return false;
+        this.dash = dash;
+        this.dashPhase = dashPhase;
+        isDashKnown = true;
+        return true;
+    }
+
+    /** Sets the font size in points. */
+    boolean setFontSize(int fontSize) {
+        if(this.fontSize == fontSize)
+            return false;
+        this.fontSize = fontSize;
+        return true;
+    }
+
+    /** Adds a translation of the output, in output coordinates. */
+    void translate(double tx, double ty) {
+        translateX += tx;
+        translateY += ty;
+    }
+
+    /** Returns how far the output is translated in x, in output
+     * coordinates.
+     */
+    double getTranslateX() {
+        return translateX;
+    }
+
+    /** Returns how far the output is translated in y, in output
+     * coordinates.
+     */
+    double getTranslateY() {
+        return translateY;
+    }
+}
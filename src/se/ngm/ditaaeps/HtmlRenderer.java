@@ -0,0 +1,314 @@
+/*
+ * HtmlRenderer.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import au.id.jericho.lib.html.Attribute;
+import au.id.jericho.lib.html.CharacterReference;
+import au.id.jericho.lib.html.Element;
+import au.id.jericho.lib.html.OutputDocument;
+import au.id.jericho.lib.html.Source;
+import au.id.jericho.lib.html.StringOutputSegment;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.core.FileUtils;
+
+/** Renders the diagrams embedded in an HTML file to EPS (or PDF) files and
+ * writes a copy of the HTML file with <code>&lt;img&gt;</code> tags in their
+ * place.
+ * <p>
+ * As in ditaa's <code>HTMLConverter</code>, the diagrams are the contents of
+ * the <code>&lt;pre class="textdiagram"&gt;</code> tags. A diagram with an
+ * <code>id</code> attribute is saved as <code>id.eps</code> (all but
+ * letters, digits, <code>-</code> and <code>_</code> replaced by
+ * underscores), the others as <code>ditaa_diagram_N.eps</code>, in an
+ * images directory next to the output file. A name that is already taken,
+ * ignoring case, gets a suffix <code>_2</code>, <code>_3</code> and so on.
+ * <p>
+ * The diagrams are rendered on a pool of worker threads while the new HTML
+ * file is written. The key of each diagram (see
+ * <code>DiagramCache.getKey</code>) is kept in a file in the images
+ * directory, and a diagram whose EPS file exists and whose key has not
+ * changed since the last run is not rendered again.
+ *
+ * @author Mikael Brannstrom
+ */
+public class HtmlRenderer {
+
+    /** The file in the images directory holding the keys of the diagrams. */
+    static final String KEYS_FILENAME = "ditaa-eps.keys";
+
+    private final ConversionOptions options;
+    private final EpsOptions epsOptions;
+    private final int threads;
+    private String imageDirName = "images";
+    private String imageBaseName = "ditaa_diagram";
+    private DiagramCache cache;
+    private DiagramRenderer renderer;
+
+    /** Creates a new instance of HtmlRenderer.
+     * @param options the conversion options used for all diagrams.
+     * @param epsOptions the options of the EPS output used for all diagrams.
+     * @param threads the number of worker threads.
+     */
+    public HtmlRenderer(ConversionOptions options, EpsOptions epsOptions, int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be positive: "+threads);
+        this.options = options;
+        this.epsOptions = epsOptions;
+        this.threads = threads;
+    }
+
+    /** Sets the directory the EPS files are written to, relative to the
+     * directory of the output file. The default is <code>images</code>.
+     */
+    public void setImageDirName(String imageDirName) {
+        this.imageDirName = imageDirName;
+    }
+
+    /** Sets the start of the names of the diagrams without an
+     * <code>id</code>. The default is <code>ditaa_diagram</code>.
+     */
+    public void setImageBaseName(String imageBaseName) {
+        this.imageBaseName = imageBaseName;
+    }
+
+    /** Sets the cache of rendered diagrams, or <code>null</code> for none.
+     */
+    public void setCache(DiagramCache cache) {
+        this.cache = cache;
+    }
+
+    /** Renders the diagrams in an HTML file and writes the new HTML file,
+     * printing one line per diagram.
+     * @param filename the HTML file to read.
+     * @param toFilename the HTML file to write.
+     * @param log where the diagrams are printed.
+     * @return the number of diagrams that failed, or -1 if the file holds
+     * no diagrams, in which case nothing is written.
+     * @throws IOException if an HTML file cannot be read or written, or the
+     * images directory cannot be created.
+     */
+    public int run(String filename, String toFilename, PrintStream log) throws IOException {
+        String encoding = options.processingOptions.getCharacterEncoding();
+        Source source = new Source(FileUtils.readFile(new File(filename), encoding));
+        OutputDocument document = new OutputDocument(source);
+
+        File toDir = new File(toFilename).getAbsoluteFile().getParentFile();
+        File imageDir = new File(toDir, imageDirName);
+        List<Job> jobs = new ArrayList<Job>();
+        int index = 1;
+        Set<String> names = new HashSet<String>();
+        Iterator it = source.findAllElements("pre").iterator();
+        while(it.hasNext()) {
+            Element element = (Element) it.next();
+            Attribute cls = element.getStartTag().getAttributes().get("class");
+            if(cls == null || !cls.hasValue() || !"textdiagram".equals(cls.getValue()))
+                continue;
+            Attribute id = element.getStartTag().getAttributes().get("id");
+            String name;
+            if(id != null && id.hasValue()) {
+                name = getUniqueName(toFileName(id.getValue()), names);
+            } else {
+                name = getUniqueName(imageBaseName+"_"+index, names);
+                index++;
+            }
+            String src = imageDirName+"/"+name;
+            document.add(new StringOutputSegment(element, "<img src=\""+src+"\" />"));
+            String text = CharacterReference.decode(element.getContent().getSourceText());
+            jobs.add(new Job(new File(imageDir, name), src, text));
+        }
+        if(jobs.isEmpty())
+            return -1;
+
+        if(!imageDir.isDirectory() && !imageDir.mkdirs())
+            throw new IOException("Cannot create directory "+imageDir);
+        File keysFile = new File(imageDir, KEYS_FILENAME);
+        Map<String, String> keys = readKeys(keysFile);
+
+        // the cache is looked up here with the keys that are also written
+        // to the keys file, so the renderer does not use it
+        renderer = new DiagramRenderer(options, epsOptions);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()));
+        List<Future<Job>> futures = new ArrayList<Future<Job>>();
+        try {
+            for(Job job : jobs) {
+                job.key = DiagramCache.makeKey(job.text, options, epsOptions);
+                if(job.key.equals(keys.get(job.file.getName())) && job.file.isFile())
+                    job.skipped = true;
+                else
+                    futures.add(executor.submit(job));
+            }
+
+            // the HTML only refers to the EPS files, so it is written while
+            // they are rendered
+            FileOutputStream file = new FileOutputStream(toFilename);
+            Writer out = new BufferedWriter(encoding == null
+                    ? new OutputStreamWriter(file) : new OutputStreamWriter(file, encoding));
+            try {
+                document.output(out);
+            } finally {
+                out.close();
+            }
+
+            for(Future<Job> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return jobs.size();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Job.call threw "+e.getCause(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int failures = 0;
+        for(Job job : jobs) {
+            if(job.skipped) {
+                log.println("SKIP   "+job.src+" (unchanged)");
+                keys.put(job.file.getName(), job.key);
+            } else if(job.error == null) {
+                log.println("OK     "+job.src+" ("+(job.time / 1000.0)+" sec)");
+                keys.put(job.file.getName(), job.key);
+            } else {
+                log.println("FAILED "+job.src+": "+job.error);
+                keys.remove(job.file.getName());
+                failures++;
+            }
+        }
+        writeKeys(keysFile, keys);
+        return failures;
+    }
+
+    /** Returns an id as a file name that cannot point outside the images
+     * directory: all but letters, digits, <code>-</code> and
+     * <code>_</code> are replaced by underscores.
+     */
+    private static String toFileName(String id) {
+        StringBuilder sb = new StringBuilder(id.length());
+        for(int i=0; i<id.length(); i++) {
+            char ch = id.charAt(i);
+            if((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '-' || ch == '_')
+                sb.append(ch);
+            else
+                sb.append('_');
+        }
+        return sb.toString();
+    }
+
+    /** Returns the file name of a diagram, with a suffix if the name is
+     * already taken, ignoring case, and adds it to the names taken, so that
+     * no two diagrams are written to the same file.
+     */
+    private String getUniqueName(String base, Set<String> names) {
+        String name = base;
+        for(int i=2; !names.add(name.toLowerCase(Locale.ENGLISH)); i++)
+            name = base+"_"+i;
+        return name+"."+epsOptions.getFileExtension();
+    }
+
+    /** Reads the keys of the diagrams rendered by the last run, by name of
+     * the EPS file. A missing file has no keys.
+     */
+    private static Map<String, String> readKeys(File file) throws IOException {
+        Map<String, String> keys = new HashMap<String, String>();
+        if(!file.isFile())
+            return keys;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                String[] parts = line.split(" ", 2);
+                if(parts.length == 2)
+                    keys.put(parts[1], parts[0]);
+            }
+        } finally {
+            in.close();
+        }
+        return keys;
+    }
+
+    private static void writeKeys(File file, Map<String, String> keys) throws IOException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for(Map.Entry<String, String> entry : new TreeMap<String, String>(keys).entrySet())
+                out.println(entry.getValue()+" "+entry.getKey());
+        } finally {
+            out.close();
+        }
+        if(out.checkError())
+            throw new IOException("Cannot write to file "+file);
+    }
+
+    private class Job implements Callable<Job> {
+        final File file;
+        final String src;
+        final String text;
+        String key;
+        boolean skipped = false;
+        String error;
+        long time;
+
+        Job(File file, String src, String text) {
+            this.file = file;
+            this.src = src;
+            this.text = text;
+        }
+
+        public Job call() {
+            long startTime = System.currentTimeMillis();
+            try {
+                byte[] eps = cache == null ? null : cache.get(key);
+                if(eps == null) {
+                    eps = renderer.render(text);
+                    if(cache != null)
+                        cache.put(key, eps);
+                }
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(eps);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                error = e.getMessage();
+            } catch (Throwable e) {
+                // also errors, e.g. a StackOverflowError in ditaa, so that
+                // one diagram does not stop the others or the keys file
+                error = e.toString();
+            }
+            time = System.currentTimeMillis() - startTime;
+            return this;
+        }
+    }
+}
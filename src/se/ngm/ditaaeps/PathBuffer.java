@@ -0,0 +1,485 @@
+/*
+ * PathBuffer.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import org.stathissideris.ascii2image.graphics.Diagram;
+import org.stathissideris.ascii2image.graphics.DiagramShape;
+import org.stathissideris.ascii2image.graphics.ShapePoint;
+
+/** A path kept as arrays of segment types and coordinates, from which it is
+ * written with a transform applied as plain arithmetic.
+ * <p>
+ * The arrays are reused for the next path and only grow, so that filling
+ * and writing a path allocates nothing. The render path of most diagram
+ * shapes is made straight into the buffer from the points of the shape,
+ * without the <code>GeneralPath</code> that ditaa would make; the same
+ * segments come out. The coordinates are doubles, which hold the floats of
+ * a <code>GeneralPath</code> exactly, as well as those of any other shape.
+ * <p>
+ * The buffer is a Shape itself, so that it can be drawn like any other
+ * shape, but it changes when it is filled again. A buffer may only be used
+ * by one thread at a time.
+ *
+ * @author Mikael Brannstrom
+ */
+final class PathBuffer implements Shape {
+
+    private byte[] types = new byte[32];
+    private double[] coords = new double[96];
+    private int typeCount = 0;
+    private int coordCount = 0;
+    private final double[] segment = new double[6];
+    /** The transformed coordinates, when simplifying. */
+    private double[] out = new double[96];
+    private double[] exact = new double[96];
+
+    /** Replaces the path in the buffer with the path of a shape, in the
+     * coordinates of the shape.
+     */
+    void set(Shape s) {
+        clear();
+        PathIterator it = s.getPathIterator(null);
+        while(!it.isDone()) {
+            int type = it.currentSegment(segment);
+            add(type, segment, getCoordCount(type));
+            it.next();
+        }
+    }
+
+    /** Returns true if the render path of a diagram shape is made from its
+     * points alone, and can be put in a buffer with <code>set</code>.
+     * Point markers and the special shapes, such as documents and storage,
+     * have render paths of their own.
+     */
+    static boolean isPlain(DiagramShape shape) {
+        int type = shape.getType();
+        if(type == DiagramShape.TYPE_POINT_MARKER)
+            return false;
+        if(shape.getPoints().size() != 4)
+            return true;
+        return type != DiagramShape.TYPE_DOCUMENT
+                && type != DiagramShape.TYPE_STORAGE
+                && type != DiagramShape.TYPE_IO
+                && type != DiagramShape.TYPE_DECISION
+                && type != DiagramShape.TYPE_MANUAL_OPERATION
+                && type != DiagramShape.TYPE_TRAPEZOID
+                && type != DiagramShape.TYPE_ELLIPSE;
+    }
+
+    /** Replaces the path in the buffer with the render path of a plain
+     * diagram shape, with the segments that
+     * <code>DiagramShape.makeIntoRenderPath</code> would make. Round
+     * corners are cut at the edges of their cells and joined with a curve.
+     * @return false if the shape has no render path, i.e. fewer than two
+     * points.
+     * @see #isPlain
+     */
+    boolean set(DiagramShape shape, Diagram diagram) {
+        clear();
+        ArrayList points = shape.getPoints();
+        int size = points.size();
+        if(size < 2)
+            return false;
+
+        ShapePoint point = (ShapePoint) points.get(0);
+        ShapePoint previous = (ShapePoint) points.get(size - 1);
+        ShapePoint next = (ShapePoint) points.get(1);
+        if(point.getType() == ShapePoint.TYPE_NORMAL) {
+            add(PathIterator.SEG_MOVETO, (int) point.x, (int) point.y);
+        } else if(point.getType() == ShapePoint.TYPE_ROUND) {
+            ShapePoint before = shape.getCellEdgePointBetween(point, previous, diagram);
+            ShapePoint after = shape.getCellEdgePointBetween(point, next, diagram);
+            add(PathIterator.SEG_MOVETO, before.x, before.y);
+            addQuad(point.x, point.y, after.x, after.y);
+        }
+
+        for(int i=1; i<size; i++) {
+            previous = point;
+            point = (ShapePoint) points.get(i);
+            next = (ShapePoint) points.get(i < size - 1 ? i + 1 : 0);
+            if(point.getType() == ShapePoint.TYPE_NORMAL) {
+                add(PathIterator.SEG_LINETO, (int) point.x, (int) point.y);
+            } else if(point.getType() == ShapePoint.TYPE_ROUND) {
+                ShapePoint before = shape.getCellEdgePointBetween(point, previous, diagram);
+                ShapePoint after = shape.getCellEdgePointBetween(point, next, diagram);
+                add(PathIterator.SEG_LINETO, before.x, before.y);
+                addQuad(point.x, point.y, after.x, after.y);
+                if(next.getType() == ShapePoint.TYPE_NORMAL) {
+                    add(PathIterator.SEG_LINETO, next.x, next.y);
+                } else if(next.getType() == ShapePoint.TYPE_ROUND) {
+                    ShapePoint edge = shape.getCellEdgePointBetween(next, point, diagram);
+                    add(PathIterator.SEG_LINETO, edge.x, edge.y);
+                }
+            }
+        }
+
+        if(shape.isClosed() && size > 2)
+            add(PathIterator.SEG_CLOSE, segment, 0);
+        return true;
+    }
+
+    private void clear() {
+        typeCount = 0;
+        coordCount = 0;
+    }
+
+    private void add(int type, float x, float y) {
+        segment[0] = x;
+        segment[1] = y;
+        add(type, segment, 2);
+    }
+
+    private void addQuad(float x1, float y1, float x2, float y2) {
+        segment[0] = x1;
+        segment[1] = y1;
+        segment[2] = x2;
+        segment[3] = y2;
+        add(PathIterator.SEG_QUADTO, segment, 4);
+    }
+
+    private void add(int type, double[] values, int n) {
+        if(typeCount == types.length) {
+            byte[] grown = new byte[types.length * 2];
+            System.arraycopy(types, 0, grown, 0, typeCount);
+            types = grown;
+        }
+        if(coordCount + n > coords.length) {
+            double[] grown = new double[Math.max(coords.length * 2, coordCount + n)];
+            System.arraycopy(coords, 0, grown, 0, coordCount);
+            coords = grown;
+        }
+        types[typeCount++] = (byte)type;
+        System.arraycopy(values, 0, coords, coordCount, n);
+        coordCount += n;
+    }
+
+    /** Returns the number of segments in the buffer. */
+    int getSegmentCount() {
+        return typeCount;
+    }
+
+    /** Writes the path in the buffer as a new path, transformed.
+     * Quadratic segments are written as cubic ones.
+     * @param ops the operators, indexed by the OP_ constants of
+     * VectorGraphics2D. A <code>null</code> <code>newpath</code> is not
+     * written.
+     * @param tolerance the tolerance of the simplification in output
+     * units, or 0 to write all segments as they are.
+     * @return the number of path segments written.
+     * @see #writeSimplified
+     */
+    long write(PsWriter ps, String[] ops, AffineTransform transform, double tolerance) {
+        if(tolerance > 0)
+            return writeSimplified(ps, ops, transform, tolerance);
+        double m00 = transform.getScaleX();
+        double m01 = transform.getShearX();
+        double m02 = transform.getTranslateX();
+        double m10 = transform.getShearY();
+        double m11 = transform.getScaleY();
+        double m12 = transform.getTranslateY();
+        double prevX = 0, prevY = 0;
+        if(ops[VectorGraphics2D.OP_NEWPATH] != null)
+            ps.op(ops[VectorGraphics2D.OP_NEWPATH]);
+        int c = 0;
+        for(int i=0; i<typeCount; i++) {
+            int type = types[i];
+            int n = getCoordCount(type);
+            for(int j=0; j<n; j+=2) {
+                double x = coords[c + j], y = coords[c + j + 1];
+                segment[j] = x * m00 + y * m01 + m02;
+                segment[j+1] = x * m10 + y * m11 + m12;
+            }
+            c += n;
+            switch(type) {
+                case PathIterator.SEG_CLOSE:
+                    ps.op(ops[VectorGraphics2D.OP_CLOSEPATH]);
+                    break;
+                case PathIterator.SEG_MOVETO:
+                    ps.number(segment[0]).number(segment[1]).op(ops[VectorGraphics2D.OP_MOVETO]);
+                    prevX = segment[0]; prevY = segment[1];
+                    break;
+                case PathIterator.SEG_LINETO:
+                    ps.number(segment[0]).number(segment[1]).op(ops[VectorGraphics2D.OP_LINETO]);
+                    prevX = segment[0]; prevY = segment[1];
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    // convert to cubic
+                    segment[4] = segment[2]; segment[5] = segment[3];
+                    segment[0] = (prevX+2.0*segment[0])/3.0;
+                    segment[1] = (prevY+2.0*segment[1])/3.0;
+                    segment[2] = (segment[4]-prevX)/3.0 + segment[0];
+                    segment[3] = (segment[5]-prevY)/3.0 + segment[1];
+                case PathIterator.SEG_CUBICTO:
+                    ps.number(segment[0]).number(segment[1])
+                            .number(segment[2]).number(segment[3])
+                            .number(segment[4]).number(segment[5]).op(ops[VectorGraphics2D.OP_CURVETO]);
+                    prevX = segment[4]; prevY = segment[5];
+                    break;
+            }
+        }
+        return typeCount;
+    }
+
+    /** Writes the path in the buffer as a new path, transformed and
+     * simplified.
+     * <p>
+     * The coordinates are snapped to multiples of the tolerance. Then a run
+     * of <code>lineto</code>s in the same direction is merged into one, as
+     * long as every point merged away is within the tolerance of the line
+     * that replaces it, a
+     * <code>lineto</code> of no length is dropped unless it is all there is
+     * of its subpath (it may be drawn as a dot), and a <code>lineto</code>
+     * back to the start of the subpath just before <code>closepath</code>
+     * is dropped, since <code>closepath</code> draws it. Curves are
+     * written as they are.
+     * @return the number of path segments written.
+     */
+    private long writeSimplified(PsWriter ps, String[] ops, AffineTransform transform, double tolerance) {
+        if(out.length < coordCount) {
+            out = new double[coords.length];
+            exact = new double[coords.length];
+        }
+        transform.transform(coords, 0, exact, 0, coordCount / 2);
+        for(int i=0; i<coordCount; i++)
+            out[i] = Math.round(exact[i] / tolerance) * tolerance;
+
+        long written = 0;
+        if(ops[VectorGraphics2D.OP_NEWPATH] != null)
+            ps.op(ops[VectorGraphics2D.OP_NEWPATH]);
+        // the current point, the start of the subpath, and the pending
+        // lineto from (ax, ay) to (bx, by) that is not written yet, made
+        // of the linetos from the one at runStart
+        double cx = 0, cy = 0, sx = 0, sy = 0;
+        double ax = 0, ay = 0, bx = 0, by = 0;
+        int runStart = 0;
+        boolean isPending = false;
+        boolean hasSegments = false;
+        int c = 0;
+        for(int i=0; i<typeCount; i++) {
+            int type = types[i];
+            int n = getCoordCount(type);
+            if(type == PathIterator.SEG_LINETO) {
+                double x = out[c], y = out[c+1];
+                if(isPending && continues(ax, ay, bx, by, x, y)
+                        && isWithin(exact, runStart, c, ax, ay, x, y, tolerance)) {
+                    bx = x; by = y;
+                } else {
+                    if(isPending)
+                        written += writeLine(ps, ops, ax, ay, bx, by, hasSegments);
+                    hasSegments |= isPending;
+                    ax = isPending ? bx : cx;
+                    ay = isPending ? by : cy;
+                    bx = x; by = y;
+                    runStart = c;
+                    isPending = true;
+                }
+                c += n;
+                continue;
+            }
+
+            if(isPending) {
+                boolean isClosing = type == PathIterator.SEG_CLOSE && bx == sx && by == sy && hasSegments;
+                if(!isClosing)
+                    written += writeLine(ps, ops, ax, ay, bx, by, hasSegments || type != PathIterator.SEG_MOVETO);
+                cx = bx; cy = by;
+                hasSegments = true;
+                isPending = false;
+            }
+            switch(type) {
+                case PathIterator.SEG_CLOSE:
+                    ps.op(ops[VectorGraphics2D.OP_CLOSEPATH]);
+                    cx = sx; cy = sy;
+                    hasSegments = false;
+                    break;
+                case PathIterator.SEG_MOVETO:
+                    ps.number(out[c]).number(out[c+1]).op(ops[VectorGraphics2D.OP_MOVETO]);
+                    cx = sx = out[c]; cy = sy = out[c+1];
+                    hasSegments = false;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    // convert to cubic
+                    segment[0] = (cx+2.0*out[c])/3.0;
+                    segment[1] = (cy+2.0*out[c+1])/3.0;
+                    segment[2] = (out[c+2]-cx)/3.0 + segment[0];
+                    segment[3] = (out[c+3]-cy)/3.0 + segment[1];
+                    segment[4] = out[c+2]; segment[5] = out[c+3];
+                    ps.number(segment[0]).number(segment[1])
+                            .number(segment[2]).number(segment[3])
+                            .number(segment[4]).number(segment[5]).op(ops[VectorGraphics2D.OP_CURVETO]);
+                    cx = segment[4]; cy = segment[5];
+                    hasSegments = true;
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    ps.number(out[c]).number(out[c+1])
+                            .number(out[c+2]).number(out[c+3])
+                            .number(out[c+4]).number(out[c+5]).op(ops[VectorGraphics2D.OP_CURVETO]);
+                    cx = out[c+4]; cy = out[c+5];
+                    hasSegments = true;
+                    break;
+            }
+            written++;
+            c += n;
+        }
+        if(isPending)
+            written += writeLine(ps, ops, ax, ay, bx, by, hasSegments);
+        return written;
+    }
+
+    /** Returns true if a line from (ax, ay) through (bx, by) to (x, y) does
+     * not turn back.
+     */
+    private static boolean continues(double ax, double ay, double bx, double by, double x, double y) {
+        return (bx - ax) * (x - bx) + (by - ay) * (y - by) >= 0;
+    }
+
+    /** Returns true if the points from index <code>begin</code> up to
+     * <code>end</code> of the coordinates are all within the tolerance of
+     * the line segment from (ax, ay) to (x, y). Checking all of them, and
+     * not only the last, keeps the error of a long run of merged linetos,
+     * e.g. along an arc, from adding up.
+     */
+    private static boolean isWithin(double[] points, int begin, int end, double ax, double ay, double x, double y, double tolerance) {
+        double dx = x - ax, dy = y - ay;
+        double lengthSq = dx*dx + dy*dy;
+        double toleranceSq = tolerance * tolerance;
+        for(int i=begin; i<end; i+=2) {
+            double px = points[i] - ax, py = points[i+1] - ay;
+            double dot = px * dx + py * dy;
+            double distanceSq;
+            if(dot <= 0) {
+                distanceSq = px*px + py*py;
+            } else if(dot >= lengthSq) {
+                double qx = points[i] - x, qy = points[i+1] - y;
+                distanceSq = qx*qx + qy*qy;
+            } else {
+                double cross = px * dy - py * dx;
+                distanceSq = cross * cross / lengthSq;
+            }
+            if(distanceSq > toleranceSq)
+                return false;
+        }
+        return true;
+    }
+
+    /** Writes a lineto, unless it has no length and is not needed.
+     * @param isDroppable true if a lineto of no length can be dropped.
+     * @return the number of segments written.
+     */
+    private static int writeLine(PsWriter ps, String[] ops, double ax, double ay, double bx, double by, boolean isDroppable) {
+        if(ax == bx && ay == by && isDroppable)
+            return 0;
+        ps.number(bx).number(by).op(ops[VectorGraphics2D.OP_LINETO]);
+        return 1;
+    }
+
+    private static int getCoordCount(int type) {
+        switch(type) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO:
+                return 2;
+            case PathIterator.SEG_QUADTO:
+                return 4;
+            case PathIterator.SEG_CUBICTO:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    public PathIterator getPathIterator(final AffineTransform at) {
+        return new PathIterator() {
+            private int index = 0;
+            private int coord = 0;
+
+            public int getWindingRule() {
+                return WIND_NON_ZERO;
+            }
+
+            public boolean isDone() {
+                return index >= typeCount;
+            }
+
+            public void next() {
+                coord += getCoordCount(types[index++]);
+            }
+
+            public int currentSegment(float[] c) {
+                int type = types[index];
+                int n = getCoordCount(type);
+                for(int i=0; i<n; i++)
+                    c[i] = (float) coords[coord + i];
+                if(at != null)
+                    at.transform(c, 0, c, 0, n / 2);
+                return type;
+            }
+
+            public int currentSegment(double[] c) {
+                int type = types[index];
+                int n = getCoordCount(type);
+                System.arraycopy(coords, coord, c, 0, n);
+                if(at != null)
+                    at.transform(c, 0, c, 0, n / 2);
+                return type;
+            }
+        };
+    }
+
+    public PathIterator getPathIterator(AffineTransform at, double flatness) {
+        return new FlatteningPathIterator(getPathIterator(at), flatness);
+    }
+
+    public Rectangle getBounds() {
+        return getBounds2D().getBounds();
+    }
+
+    public Rectangle2D getBounds2D() {
+        if(coordCount == 0)
+            return new Rectangle2D.Double();
+        double minX = coords[0], minY = coords[1];
+        double maxX = minX, maxY = minY;
+        for(int i=2; i<coordCount; i+=2) {
+            minX = Math.min(minX, coords[i]);
+            maxX = Math.max(maxX, coords[i]);
+            minY = Math.min(minY, coords[i+1]);
+            maxY = Math.max(maxY, coords[i+1]);
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    public boolean contains(double x, double y) {
+        return Path2D.contains(getPathIterator(null), x, y);
+    }
+
+    public boolean contains(Point2D p) {
+        return contains(p.getX(), p.getY());
+    }
+
+    public boolean contains(double x, double y, double w, double h) {
+        return Path2D.contains(getPathIterator(null), x, y, w, h);
+    }
+
+    public boolean contains(Rectangle2D r) {
+        return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+
+    public boolean intersects(double x, double y, double w, double h) {
+        return Path2D.intersects(getPathIterator(null), x, y, w, h);
+    }
+
+    public boolean intersects(Rectangle2D r) {
+        return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * PdfGraphics2D.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.awt.Color;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** A Graphics2D that paints to a one-page PDF OutputStream instead of to a
+ * screen or an image.
+ * <p>
+ * The drawing is written to the content stream of the page, compressed with
+ * <code>Deflater</code> as it is written, and the texts use the built-in
+ * Times-Roman Type 1 font, so nothing is embedded. The PDF around the
+ * content stream is written by <code>finish</code>, once the length of the
+ * compressed stream is known. With tight bounds (see <code>EpsOptions</code>)
+ * the media box is that of what is painted.
+ * <p>
+ * The <code>finish</code> or <code>dispose</code> method must be called to
+ * "close" the PDF. The stream is not closed.
+ *
+ * @author Mikael Brannstrom
+ */
+public class PdfGraphics2D extends VectorGraphics2D {
+
+    /** The operators, indexed by the OP_ constants. PDF has no
+     * <code>newpath</code>, and colors, texts and translations are written
+     * with operands of their own, so those entries are not used.
+     */
+    private static final String[] OPS = {
+        null, "m", "l", "c", "h",
+        "f", "S", null,
+        "w", "J", "d",
+        null, "B",
+        "q", "Q", null,
+        "j", null,
+        null, null
+    };
+
+    /** The first line of the file, followed by a comment with bytes above
+     * 127 so that the file is treated as binary.
+     */
+    private static final byte[] HEADER = {
+        '%', 'P', 'D', 'F', '-', '1', '.', '4', '\n',
+        '%', (byte)0xe2, (byte)0xe3, (byte)0xcf, (byte)0xd3, '\n'
+    };
+
+    /** The code of the bullet in WinAnsiEncoding, the encoding of the
+     * font, which matches ISO Latin-1 from 160 up.
+     */
+    private static final char BULLET = '\225';
+
+    private final OutputStream out;
+    private final Rectangle2D boundingBox;
+    private final ByteArrayOutputStream content;
+    private final Deflater deflater;
+    private final DeflaterOutputStream compressed;
+    private final boolean tight;
+    private long byteCount = 0;
+    private boolean isFinished = false;
+
+    /** Creates a new instance of PdfGraphics2D. The stream is not closed.
+     * @param out where the PDF will be written to.
+     * @param boundingBox the bounding box of the page.
+     * @param options the options of the output; only the precision is used.
+     */
+    public PdfGraphics2D(OutputStream out, Rectangle2D boundingBox, EpsOptions options) {
+        this(out, boundingBox, options, new ByteArrayOutputStream(), new Deflater(Deflater.BEST_COMPRESSION));
+    }
+
+    private PdfGraphics2D(OutputStream out, Rectangle2D boundingBox, EpsOptions options, ByteArrayOutputStream content, Deflater deflater) {
+        this(out, boundingBox, options, content, deflater, new DeflaterOutputStream(content, deflater));
+    }
+
+    private PdfGraphics2D(OutputStream out, Rectangle2D boundingBox, EpsOptions options, ByteArrayOutputStream content, Deflater deflater, DeflaterOutputStream compressed) {
+        super(new PsWriter(compressed, options.getPrecision()), OPS, boundingBox);
+        this.out = out;
+        this.boundingBox = boundingBox;
+        this.content = content;
+        this.deflater = deflater;
+        this.compressed = compressed;
+        this.tight = options.isTightBounds();
+        setSimplification(options.getSimplification());
+    }
+
+    /** Moves the bounding box to the origin of the page. */
+    void writeHeader() {
+        ps.number(1).number(0).number(0).number(1)
+                .number(-boundingBox.getMinX())
+                .number(-boundingBox.getMinY()).op("cm");
+    }
+
+    void printRgb(Color color) {
+        double r = color.getRed()/255.0;
+        double g = color.getGreen()/255.0;
+        double b = color.getBlue()/255.0;
+        ps.number(r).number(g).number(b).op("RG");
+        ps.number(r).number(g).number(b).op("rg");
+    }
+
+    void printFont(int size, String name) {
+        ps.print("/F1 ").number(size).op("Tf");
+    }
+
+    /** Fills a shape with a color, and then strokes it with the current
+     * color and stroke. The path is written only once. A different fill
+     * color is set inside a <code>q</code>, since PDF does not allow it
+     * between the path and the painting operator.
+     */
+    public void fillAndDraw(Shape s, Color fillColor) {
+        start();
+        if(!mark(s, true))
+            return;
+        printColor();
+        printStroke();
+        boolean isColored = fillColor.getRGB() != getColor().getRGB();
+        if(isColored) {
+            ps.op(ops[OP_GSAVE]);
+            ps.number(fillColor.getRed()/255.0)
+                    .number(fillColor.getGreen()/255.0)
+                    .number(fillColor.getBlue()/255.0).op("rg");
+        }
+        printPath(s);
+        ps.op(ops[OP_FILL_PRESERVE]);
+        if(isColored)
+            ps.op(ops[OP_GRESTORE]);
+    }
+
+    void printTranslate(double tx, double ty) {
+        ps.number(1).number(0).number(0).number(1).number(tx).number(ty).op("cm");
+    }
+
+    void printString(String s, float x, float y) {
+        printStrings(new String[] {s}, new float[] {x}, new float[] {y}, 1);
+    }
+
+    /** Writes several strings with the current font and color, in one text
+     * object.
+     */
+    void printStrings(String[] strings, float[] xs, float[] ys, int count) {
+        printColor();
+        printFont();
+        ps.op("BT");
+        for(int i=0; i<count; i++) {
+            pt[0] = xs[i]; pt[1] = ys[i];
+            transform.transform(pt, 0, pt, 0, 1);
+            ps.number(1).number(0).number(0).number(1).number(pt[0]).number(pt[1]).op("Tm");
+            ps.print('(').print(escape(strings[i], BULLET)).print(") ").op("Tj");
+        }
+        ps.op("ET");
+    }
+
+    /** Returns the number of bytes of PDF written, which is 0 until
+     * <code>finish</code> has been called.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /** Ends the PDF and writes it to the sink, without closing it.
+     * Nothing may be drawn afterwards.
+     * @throws IOException if writing to the sink has failed.
+     */
+    public void finish() throws IOException {
+        if(!isFinished) {
+            start();
+            isFinished = true;
+            ps.flush();
+            if(ps.checkError())
+                throw ps.getError();
+            compressed.finish();
+            deflater.end();
+
+            PsWriter pdf = new PsWriter(out, ps.getPrecision());
+            long[] offsets = new long[6];
+            pdf.write(HEADER, 0);
+            offsets[1] = pdf.getByteCount();
+            pdf.println("1 0 obj");
+            pdf.println("<< /Type /Catalog /Pages 2 0 R >>");
+            pdf.println("endobj");
+            offsets[2] = pdf.getByteCount();
+            pdf.println("2 0 obj");
+            pdf.println("<< /Type /Pages /Kids [3 0 R] /Count 1 >>");
+            pdf.println("endobj");
+            offsets[3] = pdf.getByteCount();
+            pdf.println("3 0 obj");
+            // the content is moved to the origin, and the media box with it
+            Rectangle2D box = tight ? getPaintedBounds() : null;
+            if(box == null)
+                box = boundingBox;
+            pdf.print("<< /Type /Page /Parent 2 0 R /MediaBox [")
+                    .number(box.getMinX() - boundingBox.getMinX())
+                    .number(box.getMinY() - boundingBox.getMinY())
+                    .number(box.getMaxX() - boundingBox.getMinX())
+                    .number(box.getMaxY() - boundingBox.getMinY())
+                    .println("] /Resources << /Font << /F1 5 0 R >> >> /Contents 4 0 R >>");
+            pdf.println("endobj");
+            offsets[4] = pdf.getByteCount();
+            pdf.println("4 0 obj");
+            pdf.print("<< /Length ").number(content.size()).println("/Filter /FlateDecode >>");
+            pdf.println("stream");
+            pdf.write(content.toByteArray(), 0);
+            pdf.println("\nendstream");
+            pdf.println("endobj");
+            offsets[5] = pdf.getByteCount();
+            pdf.println("5 0 obj");
+            pdf.println("<< /Type /Font /Subtype /Type1 /BaseFont /Times-Roman /Encoding /WinAnsiEncoding >>");
+            pdf.println("endobj");
+            long xref = pdf.getByteCount();
+            pdf.println("xref");
+            pdf.println("0 6");
+            pdf.println("0000000000 65535 f ");
+            for(int i=1; i<offsets.length; i++) {
+                String offset = Long.toString(offsets[i]);
+                for(int j=offset.length(); j<10; j++)
+                    pdf.print('0');
+                pdf.print(offset).println(" 00000 n ");
+            }
+            pdf.println("trailer");
+            pdf.println("<< /Size 6 /Root 1 0 R >>");
+            pdf.println("startxref");
+            pdf.print(Long.toString(xref)).endLine();
+            pdf.println("%%EOF");
+            pdf.flush();
+            byteCount = pdf.getByteCount();
+            if(pdf.checkError())
+                throw pdf.getError();
+        }
+    }
+
+    /** Ends the PDF and writes it. Errors are ignored; use
+     * <code>finish</code> to get them.
+     */
+    public void dispose() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // the PDF is incomplete
+        }
+    }
+}
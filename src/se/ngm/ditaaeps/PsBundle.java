@@ -0,0 +1,157 @@
+/*
+ * PsBundle.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.stathissideris.ascii2image.core.RenderingOptions;
+import org.stathissideris.ascii2image.graphics.Diagram;
+
+/** Writes many diagrams into one multi-page PostScript document that
+ * conforms to the DSC, instead of one EPS file each.
+ * <p>
+ * The prolog and setup are written once for all pages. Each diagram is
+ * rendered to a page of its own, sized to the diagram, and the page is
+ * written as soon as it is added, so the pages are in the order the diagrams
+ * finish. The label of each page (in <code>%%Page</code>) is the name of
+ * its diagram, and <code>writeIndex</code> writes the page of each diagram
+ * to a file of its own. Fonts are defined in the page setup, since pages
+ * must not depend on each other.
+ * <p>
+ * Pages may be added from several threads at once; the diagrams are
+ * rendered in parallel and only the writing of the pages is serialized.
+ * The stream is not closed.
+ *
+ * @author Mikael Brannstrom
+ */
+public class PsBundle {
+
+    private final PsWriter ps;
+    private final EpsOptions options;
+    private final List<String> labels = new ArrayList<String>();
+    private final Rectangle2D.Double bounds = new Rectangle2D.Double();
+    private boolean isFinished = false;
+
+    /** Creates a new instance of PsBundle and writes the header, prolog
+     * and setup.
+     * @param out where the document will be written to.
+     * @param options the options of the output used for all pages.
+     */
+    public PsBundle(OutputStream out, EpsOptions options) {
+        this.ps = new PsWriter(out, options.getPrecision());
+        this.options = options;
+        ps.println("%!PS-Adobe-3.0");
+        ps.println("%%BoundingBox: (atend)");
+        ps.println("%%HiResBoundingBox: (atend)");
+        ps.println("%%Creator: DitaaEps");
+        ps.println("%%Pages: (atend)");
+        ps.println("%%PageOrder: Ascend");
+        ps.println("%%EndComments");
+        EpsGraphics2D.printProlog(ps, options.isCompact(), 0);
+        if(options.isCompact()) {
+            ps.println("%%BeginSetup");
+            ps.op("DitaaEpsDict begin");
+            ps.println("%%EndSetup");
+        }
+    }
+
+    /** Renders a diagram and adds it as the next page.
+     * @param label the name of the diagram, usually its input file.
+     * @param diagram the diagram.
+     * @param options the rendering options.
+     * @return the number of the page, starting at 1.
+     * @throws IOException if writing the document has failed.
+     */
+    public int addPage(String label, Diagram diagram, RenderingOptions options) throws IOException {
+        return addPage(label, diagram, options, null);
+    }
+
+    /** Renders a diagram and adds it as the next page.
+     * @param label the name of the diagram, usually its input file.
+     * @param diagram the diagram.
+     * @param options the rendering options.
+     * @param stats where the timings of the render passes and the counts are
+     * added, or <code>null</code>.
+     * @return the number of the page, starting at 1.
+     * @throws IOException if writing the document has failed.
+     */
+    public int addPage(String label, Diagram diagram, RenderingOptions options, RenderStats stats) throws IOException {
+        Rectangle2D box = EpsRenderer.getBoundingBox(diagram);
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        EpsGraphics2D g2 = EpsGraphics2D.createPage(page, box, this.options);
+        EpsRenderer.renderPage(diagram, g2, options, this.options, stats);
+        return addPage(label, box.getWidth(), box.getHeight(), page.toByteArray(), g2.getOperatorCount());
+    }
+
+    private synchronized int addPage(String label, double width, double height, byte[] page, long operators) throws IOException {
+        if(isFinished)
+            throw new IllegalStateException("The bundle is finished");
+        labels.add(label);
+        int number = labels.size();
+        ps.print("%%Page: (").print(VectorGraphics2D.escape(label, EpsGraphics2D.BULLET)).print(") ").number(number).endLine();
+        // the page is at the origin, so only the upper right corner is rounded
+        ps.print("%%PageBoundingBox: 0 0 ").number((int)Math.ceil(width)).number((int)Math.ceil(height)).endLine();
+        ps.write(page, operators);
+        bounds.add(width, height);
+        if(ps.checkError())
+            throw ps.getError();
+        return number;
+    }
+
+    /** Returns the number of pages added. */
+    public synchronized int getPageCount() {
+        return labels.size();
+    }
+
+    /** Writes the trailer and flushes the document, without closing the
+     * stream. No pages may be added afterwards.
+     * @throws IOException if writing the document has failed.
+     */
+    public synchronized void finish() throws IOException {
+        if(!isFinished) {
+            ps.println("%%Trailer");
+            ps.print("%%BoundingBox: 0 0 ")
+                    .number((int)Math.ceil(bounds.getMaxX()))
+                    .number((int)Math.ceil(bounds.getMaxY())).endLine();
+            ps.print("%%HiResBoundingBox: 0 0 ")
+                    .number(bounds.getMaxX())
+                    .number(bounds.getMaxY()).endLine();
+            ps.print("%%Pages: ").number(labels.size()).endLine();
+            if(options.isCompact())
+                ps.op("end");
+            ps.println("%%EOF");
+            ps.flush();
+            isFinished = true;
+        }
+        if(ps.checkError())
+            throw ps.getError();
+    }
+
+    /** Writes the index of the document, one line per page with the number
+     * of the page, a tab and its label.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void writeIndex(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for(int i=0; i<labels.size(); i++)
+                out.println((i+1)+"\t"+labels.get(i));
+        } finally {
+            out.close();
+        }
+        if(out.checkError())
+            throw new IOException("Cannot write to file "+file);
+    }
+}
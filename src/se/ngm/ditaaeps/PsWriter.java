@@ -0,0 +1,359 @@
+/*
+ * PsWriter.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** Writes PostScript tokens to an OutputStream, a WritableByteChannel or a
+ * Writer.
+ * <p>
+ * Numbers are formatted with a fixed number of decimals, with trailing
+ * zeros trimmed, directly into a reusable buffer of ASCII bytes, so writing
+ * a token allocates nothing. The buffer is written to the sink only when it
+ * is full or flushed, so the sink is called once per buffer instead of once
+ * per token. A channel is written through a direct buffer, one per thread.
+ * Characters outside ASCII are written as <code>?</code>; strings must be
+ * escaped before they are written.
+ * <p>
+ * Errors are kept, like in a PrintWriter, and can be checked with
+ * <code>checkError</code>. The sink is never closed.
+ * <p>
+ * Between <code>beginFilter</code> and <code>endFilter</code> the bytes are
+ * compressed with a <code>Deflater</code> and encoded as ASCII base-85 on
+ * their way to the sink, for the <code>FlateDecode</code> and
+ * <code>ASCII85Decode</code> filters of PostScript.
+ *
+ * @author Mikael Brannstrom
+ */
+class PsWriter {
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L
+    };
+
+    /** The largest value that is formatted without loss of precision. */
+    private static final double MAX_FIXED = 1e12;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The direct buffer channels are written through, one per thread.
+     * Direct buffers are slow to allocate and only freed by the garbage
+     * collector, so they are reused by all writers. A buffer is only used
+     * within one call of <code>writeBuffer</code>.
+     */
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private final Writer writer;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private char[] chars;
+    private int pos = 0;
+    private IOException error = null;
+    private long written = 0;
+    private long operators = 0;
+    private Deflater deflater;
+    private Ascii85OutputStream encoder;
+    private DeflaterOutputStream filter;
+
+    private int precision;
+    private long scale;
+
+    /** Creates a new instance of PsWriter.
+     * @param out where the PostScript is written to.
+     * @param precision the number of decimals of numbers.
+     */
+    PsWriter(OutputStream out, int precision) {
+        this(out, null, null, precision);
+    }
+
+    /** Creates a new instance of PsWriter.
+     * @param out where the PostScript is written to.
+     * @param precision the number of decimals of numbers.
+     */
+    PsWriter(WritableByteChannel out, int precision) {
+        this(null, out, null, precision);
+    }
+
+    /** Creates a new instance of PsWriter.
+     * @param out where the PostScript is written to.
+     * @param precision the number of decimals of numbers.
+     */
+    PsWriter(Writer out, int precision) {
+        this(null, null, out, precision);
+    }
+
+    private PsWriter(OutputStream stream, WritableByteChannel channel, Writer writer, int precision) {
+        this.stream = stream;
+        this.channel = channel;
+        this.writer = writer;
+        setPrecision(precision);
+    }
+
+    /** Sets the number of decimals of numbers, 0 to 6.
+     */
+    void setPrecision(int precision) {
+        if(precision < 0 || precision >= POWERS_OF_TEN.length)
+            throw new IllegalArgumentException("precision must be 0 to "+(POWERS_OF_TEN.length-1)+": "+precision);
+        this.precision = precision;
+        this.scale = POWERS_OF_TEN[precision];
+    }
+
+    /** Returns the number of decimals of numbers. */
+    int getPrecision() {
+        return precision;
+    }
+
+    /** Writes a number followed by a space. */
+    PsWriter number(double v) {
+        if(Double.isNaN(v) || Double.isInfinite(v)) {
+            v = 0;
+        } else if(Math.abs(v) >= MAX_FIXED) {
+            return print(Long.toString(Math.round(v))).print(' ');
+        }
+        long r = Math.round(Math.abs(v) * scale);
+        if(v < 0 && r != 0)
+            print('-');
+        digits(r / scale, 1);
+        long frac = r % scale;
+        if(frac != 0) {
+            int width = precision;
+            while(frac % 10 == 0) {
+                frac /= 10;
+                width--;
+            }
+            print('.');
+            digits(frac, width);
+        }
+        return print(' ');
+    }
+
+    /** Writes an integer followed by a space. */
+    PsWriter number(int v) {
+        if(v < 0) {
+            print('-');
+            digits(-(long)v, 1);
+        } else {
+            digits(v, 1);
+        }
+        return print(' ');
+    }
+
+    /** Writes an operator followed by a line break. */
+    PsWriter op(String op) {
+        operators++;
+        return print(op).print('\n');
+    }
+
+    /** Writes a string as is. */
+    PsWriter print(String s) {
+        int len = s.length();
+        int off = 0;
+        while(off < len) {
+            if(pos == buf.length)
+                flushBuffer();
+            int n = Math.min(len - off, buf.length - pos);
+            for(int i=0; i<n; i++) {
+                char ch = s.charAt(off + i);
+                buf[pos + i] = ch < 128 ? (byte)ch : (byte)'?';
+            }
+            pos += n;
+            off += n;
+        }
+        return this;
+    }
+
+    /** Writes bytes formatted by another PsWriter.
+     * @param operators the number of operators in the bytes.
+     */
+    PsWriter write(byte[] bytes, long operators) {
+        this.operators += operators;
+        int off = 0;
+        while(off < bytes.length) {
+            if(pos == buf.length)
+                flushBuffer();
+            int n = Math.min(bytes.length - off, buf.length - pos);
+            System.arraycopy(bytes, off, buf, pos, n);
+            pos += n;
+            off += n;
+        }
+        return this;
+    }
+
+    /** Writes a character as is. */
+    PsWriter print(char ch) {
+        if(pos == buf.length)
+            flushBuffer();
+        buf[pos++] = ch < 128 ? (byte)ch : (byte)'?';
+        return this;
+    }
+
+    /** Ends the line, dropping the space after the last number. */
+    PsWriter endLine() {
+        if(pos > 0 && buf[pos-1] == (byte)' ')
+            pos--;
+        return print('\n');
+    }
+
+    /** Writes a line followed by a line break. */
+    PsWriter println(String s) {
+        return print(s).print('\n');
+    }
+
+    /** Starts compressing and encoding the bytes written.
+     * @param level the compression level of the <code>Deflater</code>.
+     */
+    void beginFilter(int level) {
+        if(filter != null)
+            throw new IllegalStateException("Already filtering");
+        flushBuffer();
+        deflater = new Deflater(level);
+        encoder = new Ascii85OutputStream(new OutputStream() {
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                written += len;
+                writeBuffer(b, off, len);
+            }
+        });
+        filter = new DeflaterOutputStream(encoder, deflater, BUFFER_SIZE);
+    }
+
+    /** Ends the compressed data, writing the end of data marker and a line
+     * break, and goes back to writing the bytes as they are.
+     */
+    void endFilter() {
+        flushBuffer();
+        try {
+            if(error == null) {
+                filter.finish();
+                encoder.finish();
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            deflater.end();
+            deflater = null;
+            encoder = null;
+            filter = null;
+        }
+    }
+
+    /** Writes the buffer and flushes the sink. */
+    void flush() {
+        flushBuffer();
+        try {
+            if(stream != null)
+                stream.flush();
+            else if(writer != null)
+                writer.flush();
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /** Returns true if writing to the sink has failed.
+     */
+    boolean checkError() {
+        return error != null;
+    }
+
+    /** Returns the number of bytes written to the sink, including those
+     * in the buffer. While filtering, the bytes not yet compressed are not
+     * included.
+     */
+    long getByteCount() {
+        return filter == null ? written + pos : written;
+    }
+
+    /** Returns the number of operators written with <code>op</code>.
+     */
+    long getOperatorCount() {
+        return operators;
+    }
+
+    /** Returns the first error writing to the sink, or <code>null</code>.
+     */
+    IOException getError() {
+        return error;
+    }
+
+    /** Writes a non-negative number with at least <code>width</code> digits. */
+    private void digits(long v, int width) {
+        int n = 1;
+        for(long t = v / 10; t != 0; t /= 10)
+            n++;
+        n = Math.max(n, width);
+        if(buf.length - pos < n)
+            flushBuffer();
+        for(int i = pos + n - 1; i >= pos; i--) {
+            buf[i] = (byte)('0' + (v % 10));
+            v /= 10;
+        }
+        pos += n;
+    }
+
+    private void flushBuffer() {
+        if(pos == 0)
+            return;
+        try {
+            if(error == null) {
+                if(filter != null) {
+                    filter.write(buf, 0, pos);
+                } else {
+                    written += pos;
+                    writeBuffer(buf, 0, pos);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        pos = 0;
+    }
+
+    private void writeBuffer(byte[] b, int off, int len) throws IOException {
+        if(stream != null) {
+            stream.write(b, off, len);
+        } else if(channel != null) {
+            ByteBuffer direct = DIRECT_BUFFERS.get();
+            while(len > 0) {
+                int n = Math.min(len, BUFFER_SIZE);
+                direct.clear();
+                direct.put(b, off, n);
+                direct.flip();
+                while(direct.hasRemaining()) {
+                    channel.write(direct);
+                }
+                off += n;
+                len -= n;
+            }
+        } else {
+            if(chars == null)
+                chars = new char[BUFFER_SIZE];
+            while(len > 0) {
+                int n = Math.min(len, BUFFER_SIZE);
+                for(int i=0; i<n; i++)
+                    chars[i] = (char)b[off + i];
+                writer.write(chars, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * RenderListener.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+/** Is told about each diagram a <code>DiagramRenderer</code> has rendered,
+ * instead of the renderer printing anything itself.
+ * <p>
+ * The listener is called on the thread that rendered the diagram, so it
+ * must be thread safe if the renderer is used by several threads.
+ *
+ * @author Mikael Brannstrom
+ */
+public interface RenderListener {
+
+    /** Called when a diagram has been rendered, or copied from the cache.
+     * @param name the file the diagram was read from, or <code>null</code>
+     * if it was given as text.
+     * @param stats the timings of the phases and the counts of what was
+     * written.
+     */
+    void rendered(String name, RenderStats stats);
+}
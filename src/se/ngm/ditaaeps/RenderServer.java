@@ -0,0 +1,319 @@
+/*
+ * RenderServer.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+
+/** A long-running HTTP server that renders diagrams to EPS, so that the JVM
+ * and the ditaa classes stay warm between diagrams.
+ * <p>
+ * The ASCII art is POSTed as the request body and the EPS is sent back as
+ * the response. Long rendering options (e.g. <code>no-shadows</code>,
+ * <code>scale=2</code>) can be given as query parameters and are added to
+ * the rendering options the server was started with.
+ * <p>
+ * Diagrams are rendered by a fixed number of worker threads. Requests that
+ * find all workers busy wait in a bounded queue; when the queue is full they
+ * are rejected with <code>503</code>. Diagrams larger than the cell limit are
+ * rejected with <code>413</code>, and requests that are not rendered within
+ * the timeout get <code>504</code>.
+ * <p>
+ * The timeout only bounds how long a client waits. A request that times out
+ * while still in the queue is never rendered, but ditaa does not check for
+ * interrupts, so a diagram that is already being rendered keeps its worker
+ * thread until it is done. The cell limit is what bounds that work: with
+ * few workers, keep it low enough that a diagram of the limit renders well
+ * within the timeout.
+ *
+ * @author Mikael Brannstrom
+ */
+public class RenderServer {
+
+    /** The options that may be given per request. */
+    private static final List<String> REQUEST_OPTIONS = Arrays.asList(new String[] {
+        "no-shadows", "no-antialias", "fixed-slope", "round-corners",
+        "no-separation", "scale", "tabs", "encoding", "precision", "compact",
+        "pdf", "compress", "simplify", "tight"
+    });
+
+    private final List<String> baseArgs = new ArrayList<String>();
+    private final int threads;
+    private int queueSize = 16;
+    private int maxCells = 250000;
+    private int timeout = 30;
+    private DiagramCache cache;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private ThreadPoolExecutor renderers;
+
+    /** Creates a new instance of RenderServer.
+     * @param options the command line options the server was started with.
+     * The rendering options among them apply to all requests.
+     * @param threads the number of worker threads rendering diagrams.
+     */
+    public RenderServer(Option[] options, int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be positive: "+threads);
+        this.threads = threads;
+        for(int i=0; i<options.length; i++) {
+            if(!REQUEST_OPTIONS.contains(options[i].getLongOpt()))
+                continue;
+            baseArgs.add("--"+options[i].getLongOpt());
+            if(options[i].hasArg())
+                baseArgs.add(options[i].getValue());
+        }
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /** Sets the number of requests that may wait for a worker thread. */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getMaxCells() {
+        return maxCells;
+    }
+
+    /** Sets the maximum size, in columns times rows, of a diagram. */
+    public void setMaxCells(int maxCells) {
+        this.maxCells = maxCells;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /** Sets the number of seconds a request may wait for its diagram. A
+     * diagram that has started rendering is rendered to the end even if
+     * the request times out.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /** Sets the cache of rendered diagrams, or <code>null</code> for none.
+     * Cached diagrams are sent back without waiting for a worker thread.
+     */
+    public void setCache(DiagramCache cache) {
+        this.cache = cache;
+    }
+
+    /** Starts listening on the loopback interface.
+     * @param port the port, or 0 to pick a free port.
+     * @throws IOException if the server cannot listen on the port.
+     */
+    public void start(int port) throws IOException {
+        EpsRenderer.prepareForConcurrentUse();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("localhost"), port), 0);
+        // at most threads + queueSize requests are accepted, the rest wait for a handler
+        handlers = Executors.newFixedThreadPool(threads + queueSize + 1);
+        BlockingQueue<Runnable> queue;
+        if(queueSize == 0)
+            queue = new SynchronousQueue<Runnable>();
+        else
+            queue = new ArrayBlockingQueue<Runnable>(queueSize);
+        renderers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, queue);
+        server.createContext("/", new RenderHandler());
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    /** Returns the port the server listens on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Stops the server, waiting at most <code>delay</code> seconds for
+     * requests being handled.
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        handlers.shutdown();
+        renderers.shutdownNow();
+    }
+
+    private CommandLine parseOptions(String query) throws ParseException, UnsupportedEncodingException {
+        List<String> args = new ArrayList<String>(baseArgs);
+        if(query != null && query.length() > 0) {
+            String[] params = query.split("&");
+            for(int i=0; i<params.length; i++) {
+                if(params[i].length() == 0)
+                    continue;
+                int eq = params[i].indexOf('=');
+                String name = URLDecoder.decode(eq < 0 ? params[i] : params[i].substring(0, eq), "UTF-8");
+                if(!REQUEST_OPTIONS.contains(name))
+                    throw new ParseException("Unknown option "+name);
+                args.add("--"+name);
+                if(eq >= 0)
+                    args.add(URLDecoder.decode(params[i].substring(eq+1), "UTF-8"));
+            }
+        }
+        CommandLine cmdLine = new PosixParser().parse(EpsRenderer.createCommandLineOptions(),
+                args.toArray(new String[args.size()]));
+        if(cmdLine.getArgs().length != 0)
+            throw new ParseException("Unexpected value "+cmdLine.getArgs()[0]);
+        return cmdLine;
+    }
+
+    private String readBody(HttpExchange exchange, String encoding, int maxBytes) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while((n = in.read(buf)) > 0) {
+            if(body.size() + n > maxBytes)
+                return null;
+            body.write(buf, 0, n);
+        }
+        return body.toString(encoding == null ? "UTF-8" : encoding);
+    }
+
+    private boolean isTooLarge(String text, int tabSize) {
+        String[] lines = text.split("\r?\n");
+        int width = 0;
+        for(int i=0; i<lines.length; i++) {
+            int w = lines[i].length();
+            for(int j=lines[i].indexOf('\t'); j >= 0; j=lines[i].indexOf('\t', j+1))
+                w += tabSize - 1;
+            width = Math.max(width, w);
+        }
+        return (long)width * lines.length > maxCells;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message+"\n").getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void sendEps(HttpExchange exchange, byte[] eps, EpsOptions epsOptions) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", epsOptions.isPdf() ? "application/pdf" : "application/postscript");
+        exchange.sendResponseHeaders(200, eps.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(eps);
+    }
+
+    private class RenderHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if(!"POST".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    respond(exchange, 405, "Only POST is supported");
+                    return;
+                }
+
+                final ConversionOptions options;
+                final EpsOptions epsOptions;
+                try {
+                    CommandLine cmdLine = parseOptions(exchange.getRequestURI().getRawQuery());
+                    options = new ConversionOptions(cmdLine);
+                    epsOptions = new EpsOptions(cmdLine);
+                } catch (ParseException e) {
+                    respond(exchange, 400, e.getMessage());
+                    return;
+                } catch (RuntimeException e) {
+                    respond(exchange, 400, "Invalid option value: "+e.getMessage());
+                    return;
+                }
+
+                final String text;
+                try {
+                    // at most four bytes per character, plus the line breaks
+                    text = readBody(exchange, options.processingOptions.getCharacterEncoding(), (int)Math.min(Integer.MAX_VALUE, 5L * maxCells));
+                } catch (UnsupportedEncodingException e) {
+                    respond(exchange, 400, "Unsupported encoding "+e.getMessage());
+                    return;
+                }
+                if(text == null || isTooLarge(text, options.processingOptions.getTabSize())) {
+                    respond(exchange, 413, "Diagram larger than "+maxCells+" cells");
+                    return;
+                }
+
+                final String key = cache == null ? null : cache.getKey(text, options, epsOptions);
+                byte[] cached = cache == null ? null : cache.get(key);
+                if(cached != null) {
+                    sendEps(exchange, cached, epsOptions);
+                    return;
+                }
+
+                Future<byte[]> future;
+                try {
+                    future = renderers.submit(new Callable<byte[]>() {
+                        public byte[] call() throws IOException {
+                            byte[] eps = new DiagramRenderer(options, epsOptions).render(text);
+                            if(cache != null)
+                                cache.put(key, eps);
+                            return eps;
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    respond(exchange, 503, "Too many requests");
+                    return;
+                }
+
+                byte[] eps;
+                try {
+                    eps = future.get(timeout, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    // drops the diagram if it is still queued; a running
+                    // render is not interruptible and runs to the end
+                    future.cancel(true);
+                    respond(exchange, 504, "Rendering took longer than "+timeout+" sec");
+                    return;
+                } catch (InterruptedException e) {
+                    future.cancel(true);
+                    Thread.currentThread().interrupt();
+                    respond(exchange, 503, "Server is stopping");
+                    return;
+                } catch (ExecutionException e) {
+                    respond(exchange, 500, "Cannot render diagram: "+e.getCause());
+                    return;
+                }
+
+                sendEps(exchange, eps, epsOptions);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * RenderStats.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+/** Timings of the phases of rendering one diagram, and counts of what was
+ * rendered and written.
+ * <p>
+ * The phases are timed as laps: <code>begin</code> starts the clock and each
+ * <code>lap</code> adds the time since the last lap to a phase, so the
+ * methods that fill in the stats can be nested. Times are in
+ * nanoseconds from <code>System.nanoTime</code>.
+ *
+ * @author Mikael Brannstrom
+ */
+public class RenderStats {
+
+    /** Reading the text into a <code>TextGrid</code>. */
+    public static final int LOAD = 0;
+    /** Building the <code>Diagram</code>. */
+    public static final int DIAGRAM = 1;
+    /** Writing the header and the shadows. */
+    public static final int SHADOWS = 2;
+    /** Writing the storage shapes. */
+    public static final int STORAGE = 3;
+    /** Writing the other shapes. */
+    public static final int SHAPES = 4;
+    /** Writing the point markers. */
+    public static final int MARKERS = 5;
+    /** Writing the text and the debug lines. */
+    public static final int TEXT = 6;
+    /** Writing the trailer and flushing the output. */
+    public static final int FLUSH = 7;
+
+    private static final String[] PHASE_NAMES = {
+        "load", "diagram", "shadows", "storage", "shapes", "markers", "text", "flush"
+    };
+
+    private final long[] nanos = new long[PHASE_NAMES.length];
+    private long mark;
+    private boolean isRunning = false;
+    private boolean cached;
+    private int shapes;
+    private long segments;
+    private long removedSegments;
+    private long operators;
+    private long skippedOperators;
+    private long bytes;
+
+    /** Creates a new instance of RenderStats. */
+    public RenderStats() {
+    }
+
+    /** Starts the clock, unless it is already running. */
+    public void begin() {
+        if(!isRunning) {
+            mark = System.nanoTime();
+            isRunning = true;
+        }
+    }
+
+    /** Adds the time since the last lap, or <code>begin</code>, to a phase.
+     * @param phase one of the phase constants.
+     */
+    public void lap(int phase) {
+        long now = System.nanoTime();
+        nanos[phase] += now - mark;
+        mark = now;
+    }
+
+    /** Returns the nanoseconds spent in a phase. */
+    public long getNanos(int phase) {
+        return nanos[phase];
+    }
+
+    /** Returns the nanoseconds spent in all phases. */
+    public long getTotalNanos() {
+        long total = 0;
+        for(int i=0; i<nanos.length; i++)
+            total += nanos[i];
+        return total;
+    }
+
+    /** Returns true if the EPS was copied from a cache instead of rendered. */
+    public boolean isCached() {
+        return cached;
+    }
+
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    /** Returns the number of shapes in the diagram. */
+    public int getShapes() {
+        return shapes;
+    }
+
+    public void setShapes(int shapes) {
+        this.shapes = shapes;
+    }
+
+    /** Returns the number of path segments written. */
+    public long getSegments() {
+        return segments;
+    }
+
+    public void setSegments(long segments) {
+        this.segments = segments;
+    }
+
+    /** Returns the number of path segments removed by the path
+     * simplification.
+     */
+    public long getRemovedSegments() {
+        return removedSegments;
+    }
+
+    public void setRemovedSegments(long removedSegments) {
+        this.removedSegments = removedSegments;
+    }
+
+    /** Returns the number of PostScript operators written. */
+    public long getOperators() {
+        return operators;
+    }
+
+    public void setOperators(long operators) {
+        this.operators = operators;
+    }
+
+    /** Returns the number of operators not written because they would not
+     * have changed the graphics state.
+     */
+    public long getSkippedOperators() {
+        return skippedOperators;
+    }
+
+    public void setSkippedOperators(long skippedOperators) {
+        this.skippedOperators = skippedOperators;
+    }
+
+    /** Returns the number of bytes of EPS written. */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /** Returns a human readable summary, one phase per line. */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<nanos.length; i++) {
+            appendPadded(sb, PHASE_NAMES[i], 10);
+            appendMillis(sb, nanos[i]);
+            sb.append('\n');
+        }
+        appendPadded(sb, "total", 10);
+        appendMillis(sb, getTotalNanos());
+        sb.append('\n');
+        sb.append(shapes).append(" shapes, ")
+                .append(segments).append(" path segments (")
+                .append(removedSegments).append(" removed), ")
+                .append(operators).append(" operators (")
+                .append(skippedOperators).append(" skipped), ")
+                .append(bytes).append(" bytes");
+        if(cached)
+            sb.append(" (cached)");
+        return sb.toString();
+    }
+
+    /** Returns the stats as a JSON object on one line.
+     * @param filename the diagram the stats are for.
+     */
+    public String toJson(String filename) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"file\":");
+        appendJsonString(sb, filename);
+        for(int i=0; i<nanos.length; i++)
+            sb.append(",\"").append(PHASE_NAMES[i]).append("_ns\":").append(nanos[i]);
+        sb.append(",\"total_ns\":").append(getTotalNanos());
+        sb.append(",\"cached\":").append(cached);
+        sb.append(",\"shapes\":").append(shapes);
+        sb.append(",\"segments\":").append(segments);
+        sb.append(",\"removed_segments\":").append(removedSegments);
+        sb.append(",\"operators\":").append(operators);
+        sb.append(",\"skipped_operators\":").append(skippedOperators);
+        sb.append(",\"bytes\":").append(bytes);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static void appendPadded(StringBuilder sb, String s, int width) {
+        sb.append(s);
+        for(int i=s.length(); i<width; i++)
+            sb.append(' ');
+    }
+
+    private static void appendMillis(StringBuilder sb, long nanos) {
+        String ms = String.valueOf(Math.round(nanos / 1000.0) / 1000.0);
+        for(int i=ms.length(); i<10; i++)
+            sb.append(' ');
+        sb.append(ms).append(" ms");
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for(int i=0; i<s.length(); i++) {
+            char ch = s.charAt(i);
+            switch(ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                default:
+                    if(ch < 0x20) {
+                        String hex = Integer.toHexString(ch);
+                        sb.append("\\u");
+                        for(int j=hex.length(); j<4; j++)
+                            sb.append('0');
+                        sb.append(hex);
+                    } else {
+                        sb.append(ch);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * SplitDiagram.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.stathissideris.ascii2image.core.ConversionOptions;
+import org.stathissideris.ascii2image.graphics.Diagram;
+import org.stathissideris.ascii2image.text.TextGrid;
+
+/** A diagram built as independent regions of a large text grid, one
+ * <code>Diagram</code> per region, on several threads.
+ * <p>
+ * The time ditaa takes to build a diagram grows much faster than the size of
+ * the grid, so a large grid is cut into the regions that are separated by
+ * blank rows, or by at least two blank columns, and those again, until no
+ * region can be cut.
+ * Nothing in one region can touch another, so each region is a diagram of
+ * its own, built from a grid with a blank margin around the region. The
+ * regions are rendered one after the other, each translated to its place in
+ * the whole grid. A grid that cannot be cut is built as one diagram, as
+ * usual.
+ *
+ * @author Mikael Brannstrom
+ */
+class SplitDiagram {
+
+    /** The blank cells around each region, as around a loaded grid. */
+    private static final int MARGIN = 2;
+
+    /** The threads the regions are built on, shared by all diagrams. */
+    private static final WorkerPool WORKERS = new WorkerPool("ditaa-eps-split");
+
+    private final int width;
+    private final int height;
+    private final List<Region> regions;
+
+    /** One region of the grid, and its diagram. */
+    static class Region {
+        /** The offset of the diagram in the whole grid, in pixels. */
+        final int x, y;
+        final Diagram diagram;
+
+        Region(int x, int y, Diagram diagram) {
+            this.x = x;
+            this.y = y;
+            this.diagram = diagram;
+        }
+    }
+
+    /** Cuts a grid into regions and builds their diagrams.
+     * @param grid the grid of the whole diagram.
+     * @param options the conversion options.
+     * @param threads the number of threads the diagrams are built on.
+     */
+    SplitDiagram(TextGrid grid, ConversionOptions options, int threads) {
+        List<Rectangle> bounds = findRegions(grid);
+        List<TextGrid> grids = new ArrayList<TextGrid>();
+        List<Point> offsets = new ArrayList<Point>();
+        if(bounds.size() > 1) {
+            for(Rectangle r : bounds) {
+                grids.add(getRegionGrid(grid, r));
+                offsets.add(new Point(r.x - MARGIN, r.y - MARGIN));
+            }
+        } else {
+            // nothing to gain, and the output stays that of the whole grid
+            grids.add(grid);
+            offsets.add(new Point(0, 0));
+        }
+
+        List<Diagram> diagrams = buildDiagrams(grids, options, threads);
+        int cellWidth = diagrams.get(0).getCellWidth();
+        int cellHeight = diagrams.get(0).getCellHeight();
+        this.width = grid.getWidth() * cellWidth;
+        this.height = grid.getHeight() * cellHeight;
+        this.regions = new ArrayList<Region>();
+        for(int i=0; i<diagrams.size(); i++) {
+            Point offset = offsets.get(i);
+            regions.add(new Region(offset.x * cellWidth, offset.y * cellHeight, diagrams.get(i)));
+        }
+    }
+
+    /** Builds the diagrams of the grids, in order, on several threads. */
+    private static List<Diagram> buildDiagrams(List<TextGrid> grids, final ConversionOptions options, int threads) {
+        List<Diagram> diagrams = new ArrayList<Diagram>();
+        if(threads <= 1 || grids.size() <= 1) {
+            for(TextGrid grid : grids)
+                diagrams.add(new Diagram(grid, options));
+            return diagrams;
+        }
+
+        List<Callable<Diagram>> tasks = new ArrayList<Callable<Diagram>>();
+        for(final TextGrid grid : grids) {
+            tasks.add(new Callable<Diagram>() {
+                public Diagram call() {
+                    return new Diagram(grid, options);
+                }
+            });
+        }
+        EpsRenderer.prepareForConcurrentUse();
+        try {
+            for(Future<Diagram> future : WORKERS.get(threads).invokeAll(tasks))
+                diagrams.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the diagram");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if(e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        return diagrams;
+    }
+
+    /** Returns the width of the whole diagram in pixels. */
+    int getWidth() {
+        return width;
+    }
+
+    /** Returns the height of the whole diagram in pixels. */
+    int getHeight() {
+        return height;
+    }
+
+    /** Returns the regions, from the top left to the bottom right. */
+    List<Region> getRegions() {
+        return regions;
+    }
+
+    /** Returns the bounds of the independent regions of a grid, in cells,
+     * from the top left to the bottom right. Blank regions are left out.
+     */
+    static List<Rectangle> findRegions(TextGrid grid) {
+        char[][] rows = new char[grid.getHeight()][];
+        for(int y=0; y<rows.length; y++)
+            rows[y] = grid.getRow(y).toString().toCharArray();
+        List<Rectangle> regions = new ArrayList<Rectangle>();
+        cut(rows, new Rectangle(0, 0, grid.getWidth(), grid.getHeight()), regions);
+        return regions;
+    }
+
+    /** Cuts a region at its blank rows, or else at its gaps of blank
+     * columns, and cuts the parts again, until they cannot be cut.
+     */
+    private static void cut(char[][] rows, Rectangle r, List<Rectangle> regions) {
+        r = trim(rows, r);
+        if(r == null)
+            return;
+        boolean[] isBlank = new boolean[r.height];
+        boolean hasBlank = false;
+        for(int y=0; y<r.height; y++) {
+            isBlank[y] = isBlank(rows, r.x, r.y + y, 1, 0, r.width);
+            hasBlank |= isBlank[y];
+        }
+        if(hasBlank) {
+            int begin = 0;
+            for(int y=0; y<=r.height; y++) {
+                if(y == r.height || isBlank[y]) {
+                    if(y > begin)
+                        cut(rows, new Rectangle(r.x, r.y + begin, r.width, y - begin), regions);
+                    begin = y + 1;
+                }
+            }
+            return;
+        }
+        isBlank = new boolean[r.width];
+        for(int x=0; x<r.width; x++)
+            isBlank[x] = isBlank(rows, r.x + x, r.y, 0, 1, r.height);
+        // a single blank column may be between the words of a text, and
+        // a bullet is followed by one, so only wider gaps are cut
+        boolean[] isGap = new boolean[r.width];
+        for(int x=1; x<r.width-1; x++) {
+            isGap[x] = isBlank[x] && (isBlank[x-1] || isBlank[x+1]);
+            hasBlank |= isGap[x];
+        }
+        if(hasBlank) {
+            int begin = 0;
+            for(int x=0; x<=r.width; x++) {
+                if(x == r.width || isGap[x]) {
+                    if(x > begin)
+                        cut(rows, new Rectangle(r.x + begin, r.y, x - begin, r.height), regions);
+                    begin = x + 1;
+                }
+            }
+            return;
+        }
+        regions.add(r);
+    }
+
+    /** Returns the smallest rectangle within a region that holds all its
+     * non-blank cells, or <code>null</code> if all are blank.
+     */
+    private static Rectangle trim(char[][] rows, Rectangle r) {
+        int minX = r.x + r.width, maxX = r.x - 1;
+        int minY = r.y + r.height, maxY = r.y - 1;
+        for(int y=r.y; y<r.y+r.height; y++) {
+            for(int x=r.x; x<r.x+r.width; x++) {
+                if(!isBlank(rows, x, y)) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+        if(maxX < minX)
+            return null;
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /** Returns true if <code>count</code> cells from (x, y) in the direction
+     * (dx, dy) are blank.
+     */
+    private static boolean isBlank(char[][] rows, int x, int y, int dx, int dy, int count) {
+        for(int i=0; i<count; i++) {
+            if(!isBlank(rows, x + i*dx, y + i*dy))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isBlank(char[][] rows, int x, int y) {
+        return x >= rows[y].length || rows[y][x] == ' ';
+    }
+
+    /** Returns a grid with the cells of a region and a blank margin around
+     * them.
+     */
+    private static TextGrid getRegionGrid(TextGrid grid, Rectangle r) {
+        TextGrid regionGrid = new TextGrid(r.width + 2*MARGIN, r.height + 2*MARGIN);
+        char[] row = new char[r.width + 2*MARGIN];
+        Arrays.fill(row, ' ');
+        for(int y=0; y<regionGrid.getHeight(); y++) {
+            if(y >= MARGIN && y < MARGIN + r.height)
+                grid.getRow(r.y + y - MARGIN).getChars(r.x, r.x + r.width, row, MARGIN);
+            else
+                Arrays.fill(row, MARGIN, MARGIN + r.width, ' ');
+            regionGrid.setRow(y, new String(row));
+        }
+        return regionGrid;
+    }
+}
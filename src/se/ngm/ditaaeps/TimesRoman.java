@@ -0,0 +1,53 @@
+/*
+ * TimesRoman.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+/** The metrics of Times-Roman, the font the text is written with in both
+ * EPS and PDF, from its AFM file, in thousandths of the font size.
+ * <p>
+ * Only the widths of the printable ASCII characters are kept; other
+ * characters are taken to be as wide as the font size, which no character
+ * of the font is wider than.
+ *
+ * @author Mikael Brannstrom
+ */
+final class TimesRoman {
+
+    /** The lowest x of any glyph, from the font bounding box. */
+    static final int MIN_X = -168;
+    /** The lowest y of any glyph, from the font bounding box. */
+    static final int MIN_Y = -218;
+    /** The highest y of any glyph, from the font bounding box. */
+    static final int MAX_Y = 898;
+    /** The width of a character that is not in the table. */
+    private static final int DEFAULT_WIDTH = 1000;
+
+    /** The widths of the characters 32 to 126. */
+    private static final short[] WIDTHS = {
+        250, 333, 408, 500, 500, 833, 778, 333, 333, 333, 500, 564, 250, 333, 250, 278,
+        500, 500, 500, 500, 500, 500, 500, 500, 500, 500, 278, 278, 564, 564, 564, 444,
+        921, 722, 667, 667, 722, 611, 556, 722, 722, 333, 389, 722, 611, 889, 722, 722,
+        556, 722, 667, 556, 611, 722, 722, 944, 722, 722, 611, 333, 278, 333, 469, 500,
+        333, 444, 500, 444, 500, 444, 333, 500, 500, 278, 278, 500, 278, 778, 500, 500,
+        500, 500, 333, 389, 278, 500, 500, 722, 500, 500, 444, 480, 200, 480, 541
+    };
+
+    private TimesRoman() {
+    }
+
+    /** Returns the width of a string, i.e. the sum of the advance widths of
+     * its characters, in thousandths of the font size.
+     */
+    static int getWidth(String s) {
+        int width = 0;
+        for(int i=0; i<s.length(); i++) {
+            int ch = s.charAt(i) - 32;
+            width += ch >= 0 && ch < WIDTHS.length ? WIDTHS[ch] : DEFAULT_WIDTH;
+        }
+        return width;
+    }
+}
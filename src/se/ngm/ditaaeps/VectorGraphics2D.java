@@ -0,0 +1,918 @@
+/*
+ * VectorGraphics2D.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The part of a Graphics2D that writes PostScript-like page descriptions
+ * which is the same for EPS and PDF: the paths, the graphics state that is
+ * tracked so that only changes are written, and the transform.
+ * <p>
+ * Only the methods necessary for EpsRenderer are implemented, i.e. the following:
+ * <ul>
+ * <li>Fill and draw shapes
+ * <li>Draw string at x-y
+ * <li>Color, Font (only size) and stroke (only BasicStroke)
+ * </ul>
+ * <p>
+ * The operators are written from a table indexed by the OP_ constants,
+ * which each subclass provides. The <code>finish</code> or
+ * <code>dispose</code> method must be called to "close" the output.
+ * <p>
+ * The extent of what is painted is tracked as it is written, from the
+ * bounds of each path, widened by the stroke, and of each text, so that
+ * the output can be given a tight bounding box. Shapes and texts that fall
+ * entirely outside the page are not written at all.
+ *
+ * @author Mikael Brannstrom
+ */
+public abstract class VectorGraphics2D extends Graphics2D {
+
+    static final int OP_NEWPATH = 0;
+    static final int OP_MOVETO = 1;
+    static final int OP_LINETO = 2;
+    static final int OP_CURVETO = 3;
+    static final int OP_CLOSEPATH = 4;
+    static final int OP_FILL = 5;
+    static final int OP_STROKE = 6;
+    static final int OP_SETRGBCOLOR = 7;
+    static final int OP_SETLINEWIDTH = 8;
+    static final int OP_SETLINECAP = 9;
+    static final int OP_SETDASH = 10;
+    static final int OP_SHOW = 11;
+    static final int OP_FILL_PRESERVE = 12;
+    static final int OP_GSAVE = 13;
+    static final int OP_GRESTORE = 14;
+    static final int OP_TRANSLATE = 15;
+    static final int OP_SETLINEJOIN = 16;
+    static final int OP_FILL_COLORED = 17;
+    static final int OP_SETFONT = 18;
+    static final int OP_SHOW_RUN = 19;
+
+    final PsWriter ps;
+    final String[] ops;
+    private boolean isStarted = false;
+    final AffineTransform transform = new AffineTransform();
+    final double[] pt = new double[6];
+    /** The buffer paths are written from, one per thread, reused for all
+     * shapes.
+     */
+    private static final ThreadLocal<PathBuffer> PATH_BUFFERS = new ThreadLocal<PathBuffer>() {
+        protected PathBuffer initialValue() {
+            return new PathBuffer();
+        }
+    };
+    private long segments = 0;
+    private long removedSegments = 0;
+    /** The tolerance of the path simplification, 0 for none. */
+    private double simplification = 0;
+
+    private Stroke stroke = new BasicStroke();
+    private boolean isStrokeDirty = true;
+    private Color color = Color.BLACK;
+    private boolean isColorDirty = true;
+    private Font font = null;
+    private boolean isFontDirty = true;
+    /** The state written to the output, so that only changes are written. */
+    private GraphicsState state = new GraphicsState();
+    private final ArrayList<GraphicsState> savedStates = new ArrayList<GraphicsState>();
+    long skipped = 0;
+    /** The names of the fonts defined in the setup, by size. */
+    final Map<Integer, String> fontNames = new LinkedHashMap<Integer, String>();
+    private final Map<Shape, PreparedPath> preparedPaths = new IdentityHashMap<Shape, PreparedPath>();
+    /** The page, in output coordinates. */
+    private final Rectangle2D page;
+    /** The extent of what is painted, in output coordinates, as minX, minY,
+     * maxX and maxY. Empty until something is painted.
+     */
+    private final double[] extent = {
+        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+    private final double[] corners = new double[8];
+    private long culled = 0;
+
+    /** Creates a new instance of VectorGraphics2D.
+     * @param ps where the drawing is written to.
+     * @param ops the operators, indexed by the OP_ constants. A
+     * <code>null</code> <code>newpath</code> is not written.
+     * @param page the page in output coordinates, outside which nothing is
+     * written.
+     */
+    VectorGraphics2D(PsWriter ps, String[] ops, Rectangle2D page) {
+        this.ps = ps;
+        this.ops = ops;
+        this.page = page;
+    }
+
+    /** Declares a font that will be used, so that it is looked up once in
+     * the setup instead of each time it is set. Fonts must be declared
+     * before anything is drawn.
+     */
+    public void declareFont(Font font) {
+        if(isStarted)
+            throw new IllegalStateException("Fonts must be declared before drawing");
+        Integer size = Integer.valueOf(getFontSize(font));
+        if(!fontNames.containsKey(size))
+            fontNames.put(size, "F"+(fontNames.size()+1));
+    }
+
+    /** Writes what comes before the drawing, the first time it is called. */
+    final void start() {
+        if(!isStarted) {
+            isStarted = true;
+            writeHeader();
+        }
+    }
+
+    /** Writes what comes before the drawing, e.g. the header and prolog. */
+    abstract void writeHeader();
+
+    /** Writes a shape as a new path. Package private for the benchmarks. */
+    void printPath(Shape s) {
+        start();
+        PreparedPath prepared = preparedPaths.get(s);
+        if(prepared != null && prepared.transform.equals(transform)) {
+            ps.write(prepared.bytes, prepared.operators);
+            segments += prepared.segments;
+            removedSegments += prepared.removedSegments;
+        } else if(s instanceof PathBuffer) {
+            printPath((PathBuffer)s);
+        } else {
+            PathBuffer path = PATH_BUFFERS.get();
+            path.set(s);
+            printPath(path);
+        }
+    }
+
+    private void printPath(PathBuffer buffer) {
+        long written = buffer.write(ps, ops, transform, simplification);
+        segments += written;
+        removedSegments += buffer.getSegmentCount() - written;
+    }
+
+    /** Sets the tolerance of the path simplification, in output units.
+     * Paths are then written with their coordinates snapped to multiples of
+     * the tolerance, collinear runs of lines merged and lines of no length
+     * dropped. 0, the default, writes paths as they are.
+     */
+    public void setSimplification(double tolerance) {
+        this.simplification = tolerance;
+    }
+
+    public double getSimplification() {
+        return simplification;
+    }
+
+    /** Returns a writer that formats paths ahead of drawing, exactly as this
+     * Graphics2D would write them with its current transform. The writers
+     * can be used on other threads, one writer per thread.
+     */
+    PathWriter createPathWriter() {
+        return new PathWriter(this);
+    }
+
+    /** Makes a path prepared by a PathWriter be used when the shape is
+     * drawn. Shapes are compared by identity.
+     */
+    void putPreparedPath(Shape s, PreparedPath prepared) {
+        preparedPaths.put(s, prepared);
+    }
+
+    /** A path formatted by a PathWriter. */
+    static class PreparedPath {
+        final AffineTransform transform;
+        final byte[] bytes;
+        final long operators;
+        final long segments;
+        final long removedSegments;
+
+        PreparedPath(AffineTransform transform, byte[] bytes, long operators, long segments, long removedSegments) {
+            this.transform = transform;
+            this.bytes = bytes;
+            this.operators = operators;
+            this.segments = segments;
+            this.removedSegments = removedSegments;
+        }
+    }
+
+    /** Formats paths into byte arrays, for drawing them later. */
+    static class PathWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final PsWriter ps;
+        private final String[] ops;
+        private final AffineTransform transform;
+        private final double simplification;
+        private final PathBuffer path = new PathBuffer();
+
+        private PathWriter(VectorGraphics2D g2) {
+            this.ps = new PsWriter(bytes, g2.ps.getPrecision());
+            this.ops = g2.ops;
+            this.transform = new AffineTransform(g2.transform);
+            this.simplification = g2.simplification;
+        }
+
+        PreparedPath write(Shape s) {
+            long operators = ps.getOperatorCount();
+            path.set(s);
+            long segments = path.write(ps, ops, transform, simplification);
+            ps.flush();
+            PreparedPath prepared = new PreparedPath(transform, bytes.toByteArray(),
+                    ps.getOperatorCount() - operators, segments, path.getSegmentCount() - segments);
+            bytes.reset();
+            return prepared;
+        }
+    }
+
+    void printColor() {
+        if(isColorDirty) {
+            if(state.setColor(color.getRGB()))
+                printRgb(color);
+            else
+                skipped++;
+            isColorDirty = false;
+        }
+    }
+
+    /** Writes the operators that make a color the one strokes, fills and
+     * texts are painted with.
+     */
+    abstract void printRgb(Color color);
+
+    void printStroke() {
+        if(isStrokeDirty) {
+            if(stroke instanceof BasicStroke) {
+                BasicStroke bs = (BasicStroke)stroke;
+                if(state.setLineWidth(bs.getLineWidth()))
+                    ps.number(bs.getLineWidth()).op(ops[OP_SETLINEWIDTH]);
+                else
+                    skipped++;
+                int cap = 0;
+                switch(bs.getEndCap()) {
+                    case BasicStroke.CAP_BUTT:
+                        cap = 0;
+                        break;
+                    case BasicStroke.CAP_ROUND:
+                        cap = 1;
+                        break;
+                    case BasicStroke.CAP_SQUARE:
+                        cap = 2;
+                        break;
+                }
+                if(state.setLineCap(cap))
+                    ps.number(cap).op(ops[OP_SETLINECAP]);
+                else
+                    skipped++;
+                int join = 0;
+                switch(bs.getLineJoin()) {
+                    case BasicStroke.JOIN_MITER:
+                        join = 0;
+                        break;
+                    case BasicStroke.JOIN_ROUND:
+                        join = 1;
+                        break;
+                    case BasicStroke.JOIN_BEVEL:
+                        join = 2;
+                        break;
+                }
+                if(state.setLineJoin(join))
+                    ps.number(join).op(ops[OP_SETLINEJOIN]);
+                else
+                    skipped++;
+                float[] dash = bs.getDashArray();
+                if(!state.setDash(dash, bs.getDashPhase())) {
+                    skipped++;
+                } else if(dash != null) {
+                    ps.print('[');
+                    for(int i=0; i<dash.length; i++) {
+                        ps.number(dash[i]);
+                    }
+                    ps.print("] ").number(bs.getDashPhase()).op(ops[OP_SETDASH]);
+                } else {
+                    ps.print("[] 0 ").op(ops[OP_SETDASH]);
+                }
+            }
+            isStrokeDirty = false;
+        }
+    }
+
+    static int getFontSize(Font font) {
+        return font.getSize() * 4 / 3;
+    }
+
+    void printFont() {
+        if(isFontDirty) {
+            int size = getFontSize(font);
+            if(state.setFontSize(size))
+                printFont(size, fontNames.get(Integer.valueOf(size)));
+            else
+                skipped++;
+            isFontDirty = false;
+        }
+    }
+
+    /** Writes the operators that set the font.
+     * @param size the size of the font in points.
+     * @param name the name of the font declared with that size, or
+     * <code>null</code>.
+     */
+    abstract void printFont(int size, String name);
+
+    /** Adds the bounds of a shape to the extent of what is painted, unless
+     * it is outside the page.
+     * @param isStroked true if the shape is stroked with the current stroke,
+     * which widens it.
+     * @return false if the shape is outside the page, and is not to be
+     * written.
+     */
+    boolean mark(Shape s, boolean isStroked) {
+        Rectangle2D bounds = s.getBounds2D();
+        corners[0] = bounds.getMinX(); corners[1] = bounds.getMinY();
+        corners[2] = bounds.getMaxX(); corners[3] = bounds.getMinY();
+        corners[4] = bounds.getMinX(); corners[5] = bounds.getMaxY();
+        corners[6] = bounds.getMaxX(); corners[7] = bounds.getMaxY();
+        transform.transform(corners, 0, corners, 0, 4);
+        double minX = Math.min(Math.min(corners[0], corners[2]), Math.min(corners[4], corners[6]));
+        double maxX = Math.max(Math.max(corners[0], corners[2]), Math.max(corners[4], corners[6]));
+        double minY = Math.min(Math.min(corners[1], corners[3]), Math.min(corners[5], corners[7]));
+        double maxY = Math.max(Math.max(corners[1], corners[3]), Math.max(corners[5], corners[7]));
+        double pad = isStroked ? getStrokePad() : 0;
+        return mark(minX - pad, minY - pad, maxX + pad, maxY + pad);
+    }
+
+    /** Returns how far a stroke with the current stroke can reach outside
+     * the path, in output coordinates. The line width is written as it is,
+     * so it is in output coordinates already.
+     */
+    private double getStrokePad() {
+        if(!(stroke instanceof BasicStroke))
+            return 0;
+        BasicStroke bs = (BasicStroke)stroke;
+        double pad = bs.getLineWidth() / 2;
+        if(bs.getLineJoin() == BasicStroke.JOIN_MITER)
+            return pad * Math.max(bs.getMiterLimit(), Math.sqrt(2));
+        if(bs.getEndCap() == BasicStroke.CAP_SQUARE)
+            return pad * Math.sqrt(2);
+        return pad;
+    }
+
+    /** Adds the bounds of a text, drawn with the current font, to the extent
+     * of what is painted, unless it is outside the page.
+     * @return false if the text is outside the page, and is not to be
+     * written.
+     */
+    boolean markText(String s, float x, float y) {
+        pt[0] = x; pt[1] = y;
+        transform.transform(pt, 0, pt, 0, 1);
+        // the text is written upright in output coordinates
+        double size = getFontSize(font) / 1000.0;
+        return mark(pt[0] + TimesRoman.MIN_X * size,
+                pt[1] + TimesRoman.MIN_Y * size,
+                pt[0] + (TimesRoman.getWidth(s) - TimesRoman.MIN_X) * size,
+                pt[1] + TimesRoman.MAX_Y * size);
+    }
+
+    /** Adds a rectangle in output coordinates, before the translation of
+     * the output, to the extent of what is painted, clipped to the page.
+     * @return false if the rectangle is outside the page.
+     */
+    private boolean mark(double minX, double minY, double maxX, double maxY) {
+        minX = Math.max(minX + state.getTranslateX(), page.getMinX());
+        minY = Math.max(minY + state.getTranslateY(), page.getMinY());
+        maxX = Math.min(maxX + state.getTranslateX(), page.getMaxX());
+        maxY = Math.min(maxY + state.getTranslateY(), page.getMaxY());
+        if(minX > maxX || minY > maxY) {
+            culled++;
+            return false;
+        }
+        extent[0] = Math.min(extent[0], minX);
+        extent[1] = Math.min(extent[1], minY);
+        extent[2] = Math.max(extent[2], maxX);
+        extent[3] = Math.max(extent[3], maxY);
+        return true;
+    }
+
+    /** Returns the extent of what has been painted, in output coordinates,
+     * within the page, or <code>null</code> if nothing has.
+     */
+    public Rectangle2D getPaintedBounds() {
+        if(extent[0] > extent[2])
+            return null;
+        return new Rectangle2D.Double(extent[0], extent[1],
+                extent[2] - extent[0], extent[3] - extent[1]);
+    }
+
+    /** Returns the number of shapes and texts not written because they
+     * were outside the page.
+     */
+    public long getCulledCount() {
+        return culled;
+    }
+
+    public void draw(Shape s) {
+        start();
+        if(!mark(s, true))
+            return;
+        printColor();
+        printStroke();
+        printPath(s);
+        ps.op(ops[OP_STROKE]);
+    }
+
+    public void fill(Shape s) {
+        start();
+        if(!mark(s, false))
+            return;
+        printColor();
+        printPath(s);
+        ps.op(ops[OP_FILL]);
+    }
+
+    /** Fills a shape with a color, and then strokes it with the current
+     * color and stroke. The path is written only once, and the current color
+     * stays in effect afterwards.
+     */
+    public abstract void fillAndDraw(Shape s, Color fillColor);
+
+    /** Saves the graphics state of the output, i.e. the color, stroke and
+     * font written so far and any <code>translateOutput</code>.
+     * The color, stroke and font of this Graphics2D are not changed by
+     * <code>grestore</code>; they are written again if needed.
+     */
+    public void gsave() {
+        start();
+        savedStates.add(new GraphicsState(state));
+        ps.op(ops[OP_GSAVE]);
+    }
+
+    /** Restores the graphics state saved by the last <code>gsave</code>.
+     */
+    public void grestore() {
+        start();
+        if(savedStates.isEmpty())
+            throw new IllegalStateException("grestore without gsave");
+        state = savedStates.remove(savedStates.size()-1);
+        isColorDirty = true;
+        isStrokeDirty = true;
+        isFontDirty = true;
+        ps.op(ops[OP_GRESTORE]);
+    }
+
+    /** Translates the coordinate system of the output, instead of the
+     * transform of this Graphics2D, so that shapes drawn afterwards are
+     * written with unchanged coordinates but end up displaced. The distances
+     * are in user space. Undo it with <code>gsave</code> and
+     * <code>grestore</code>.
+     */
+    public void translateOutput(double tx, double ty) {
+        start();
+        pt[0] = tx; pt[1] = ty;
+        transform.deltaTransform(pt, 0, pt, 0, 1);
+        state.translate(pt[0], pt[1]);
+        printTranslate(pt[0], pt[1]);
+    }
+
+    /** Writes the operators that translate the coordinate system of the
+     * output by a distance in output coordinates.
+     */
+    abstract void printTranslate(double tx, double ty);
+
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float)x, (float)y);
+    }
+
+    public void drawString(String s, float x, float y) {
+        start();
+        if(markText(s, x, y))
+            printString(s, x, y);
+    }
+
+    /** Writes a string with the current font and color. */
+    abstract void printString(String s, float x, float y);
+
+    /** Draws several strings with the current font and color. The strings
+     * outside the page are left out.
+     * @param strings the strings.
+     * @param xs the x coordinates of the strings.
+     * @param ys the y coordinates of the strings.
+     * @param count the number of strings.
+     */
+    public void drawStrings(String[] strings, float[] xs, float[] ys, int count) {
+        start();
+        String[] keptStrings = strings;
+        float[] keptXs = xs;
+        float[] keptYs = ys;
+        int kept = 0;
+        for(int i=0; i<count; i++) {
+            if(!markText(strings[i], xs[i], ys[i]))
+                continue;
+            if(kept < i) {
+                // the arrays of the caller are left as they are
+                if(keptStrings == strings) {
+                    keptStrings = new String[count];
+                    keptXs = new float[count];
+                    keptYs = new float[count];
+                    System.arraycopy(strings, 0, keptStrings, 0, kept);
+                    System.arraycopy(xs, 0, keptXs, 0, kept);
+                    System.arraycopy(ys, 0, keptYs, 0, kept);
+                }
+                keptStrings[kept] = strings[i];
+                keptXs[kept] = xs[i];
+                keptYs[kept] = ys[i];
+            }
+            kept++;
+        }
+        if(kept == 1)
+            printString(keptStrings[0], keptXs[0], keptYs[0]);
+        else if(kept > 1)
+            printStrings(keptStrings, keptXs, keptYs, kept);
+    }
+
+    /** Writes several strings with the current font and color.
+     * @param strings the strings.
+     * @param xs the x coordinates of the strings.
+     * @param ys the y coordinates of the strings.
+     * @param count the number of strings, more than one.
+     */
+    abstract void printStrings(String[] strings, float[] xs, float[] ys, int count);
+
+    /** Escapes a string to be written between parentheses. Characters
+     * above 127 are written as octal escapes of their Latin-1 codes, and
+     * characters that are not printable Latin-1 as question marks.
+     * @param bullet the code of the bullet in the encoding of the font.
+     */
+    static String escape(String s, char bullet) {
+        StringBuilder sb = new StringBuilder(s.length()+8);
+        for(int i=0; i<s.length(); i++) {
+            char ch = s.charAt(i);
+            switch(ch) {
+            case '(':
+                sb.append("\\(");
+                break;
+            case ')':
+                sb.append("\\)");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            default:
+                if(ch == '\u2022') {
+                    // the bullet ditaa puts in front of list items, which
+                    // is not in Latin-1
+                    appendOctal(sb, bullet);
+                } else if(ch > 255 || (ch > 127 && ch < 160)) {
+                    // not a printable Latin-1 character, and so not in the
+                    // encoding of the font
+                    sb.append('?');
+                } else if(ch > 127) {
+                    appendOctal(sb, ch);
+                } else {
+                    sb.append(ch);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendOctal(StringBuilder sb, char ch) {
+        sb.append('\\');
+        for(int j=2; j>=0; j--) {
+            sb.append((char)(((ch >> 3*j) & 7) + '0'));
+        }
+    }
+
+    public void setStroke(Stroke s) {
+        isStrokeDirty = isStrokeDirty || (this.stroke != s);
+        this.stroke = s;
+    }
+
+    public void translate(int x, int y) {
+        transform.translate(x, y);
+    }
+
+    public void translate(double tx, double ty) {
+        transform.translate(tx, ty);
+    }
+
+    public void rotate(double theta) {
+        transform.rotate(theta);
+    }
+
+    public void rotate(double theta, double x, double y) {
+        transform.rotate(theta, x, y);
+    }
+
+    public void scale(double sx, double sy) {
+        transform.scale(sx, sy);
+    }
+
+    public void shear(double shx, double shy) {
+        transform.shear(shx, shy);
+    }
+
+    public void transform(AffineTransform Tx) {
+        transform.concatenate(Tx);
+    }
+
+    public void setTransform(AffineTransform Tx) {
+        transform.setTransform(Tx);
+    }
+
+    public AffineTransform getTransform() {
+        return transform;
+    }
+
+    public Stroke getStroke() {
+        return stroke;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public void setColor(Color c) {
+        isColorDirty = isColorDirty || (this.color != c);
+        this.color = c;
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public void setFont(Font font) {
+        isFontDirty = isFontDirty || (this.font != font);
+        this.font = font;
+    }
+
+    /** Returns the number of path segments written. */
+    public long getSegmentCount() {
+        return segments;
+    }
+
+    /** Returns the number of path segments not written because the path
+     * simplification removed them.
+     */
+    public long getRemovedSegmentCount() {
+        return removedSegments;
+    }
+
+    /** Returns the number of operators written. */
+    public long getOperatorCount() {
+        return ps.getOperatorCount();
+    }
+
+    /** Returns the number of operators not written because they would not
+     * have changed the graphics state.
+     */
+    public long getSkippedOperatorCount() {
+        return skipped;
+    }
+
+    /** Returns the number of bytes written. */
+    public long getByteCount() {
+        return ps.getByteCount();
+    }
+
+    /** Ends the output and flushes it to the sink, without closing it.
+     * Nothing may be drawn afterwards.
+     * @throws IOException if writing to the sink has failed.
+     */
+    public abstract void finish() throws IOException;
+
+
+    // -------------------------------------------------------------------------
+    // NOT IMPLEMENTED METHODS
+    // -------------------------------------------------------------------------
+
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void setRenderingHints(Map/*<?, ?>*/ hints) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void addRenderingHints(Map/*<?, ?>*/ hints) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public RenderingHints getRenderingHints() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawGlyphVector(GlyphVector g, float x, float y) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public Paint getPaint() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public Composite getComposite() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void clip(Shape s) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public FontRenderContext getFontRenderContext() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public Graphics create() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+    public void setBackground(Color color) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public Color getBackground() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public GraphicsConfiguration getDeviceConfiguration() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void setComposite(Composite comp) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void setPaint(Paint paint) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void setPaintMode() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void setXORMode(Color c1) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public FontMetrics getFontMetrics(Font f) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public Rectangle getClipBounds() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void clipRect(int x, int y, int width, int height) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void setClip(int x, int y, int width, int height) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public Shape getClip() {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void setClip(Shape clip) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void fillRect(int x, int y, int width, int height) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void clearRect(int x, int y, int width, int height) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawOval(int x, int y, int width, int height) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void fillOval(int x, int y, int width, int height) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        throw new RuntimeException("Not implemented"); // FIXME
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * WorkerPool.java
+ *
+ * Copyright (C) 2006 Nordic Growth Market NGM AB.
+ */
+
+package se.ngm.ditaaeps;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Worker threads shared by all diagrams that are rendered, so that
+ * rendering a diagram does not start and stop threads of its own.
+ * <p>
+ * There is one executor per number of threads, created when it is first
+ * asked for. The threads are daemon threads, so they never keep the JVM
+ * running, and they stop after a minute without work. Tasks run on an
+ * executor must not wait for tasks on the same executor.
+ *
+ * @author Mikael Brannstrom
+ */
+final class WorkerPool {
+
+    private final String name;
+    private final Map<Integer, ExecutorService> executors = new HashMap<Integer, ExecutorService>();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /** Creates a new instance of WorkerPool.
+     * @param name the prefix of the names of the threads.
+     */
+    WorkerPool(String name) {
+        this.name = name;
+    }
+
+    /** Returns the executor with a number of threads. It is shared and must
+     * not be shut down.
+     */
+    synchronized ExecutorService get(int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("threads must be positive: "+threads);
+        Integer key = Integer.valueOf(threads);
+        ExecutorService executor = executors.get(key);
+        if(executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, name+"-"+threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            executors.put(key, executor);
+        }
+        return executor;
+    }
+}